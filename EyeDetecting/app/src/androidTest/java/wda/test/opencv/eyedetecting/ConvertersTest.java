@@ -0,0 +1,201 @@
+package wda.test.opencv.eyedetecting;
+
+import android.support.test.runner.AndroidJUnit4;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.core.MatOfDMatch;
+import org.opencv.core.MatOfFloat;
+import org.opencv.core.MatOfKeyPoint;
+import org.opencv.core.MatOfPoint;
+import org.opencv.core.MatOfRect;
+import org.opencv.core.Rect;
+import org.opencv.core.RectBuffer;
+import org.opencv.utils.Converters;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+/**
+ * Instrumentation test round-tripping the primitive array converters and the caller-buffer
+ * overloads of the MatOf* classes through native Mats.
+ */
+@RunWith(AndroidJUnit4.class)
+public class ConvertersTest extends OpenCVTestCase {
+
+    // arrays are larger than count * channels, to check that only count elements are copied
+    private static float[] floats(int length) {
+        float[] a = new float[length];
+        for (int i = 0; i < length; i++)
+            a[i] = i * 1.5f - 7;
+        return a;
+    }
+
+    private static int[] ints(int length) {
+        int[] a = new int[length];
+        for (int i = 0; i < length; i++)
+            a[i] = i * 3 - 11;
+        return a;
+    }
+
+    private static void assertPrefixEquals(float[] expected, float[] actual, int length) {
+        for (int i = 0; i < length; i++)
+            assertEquals(expected[i], actual[i], 0);
+    }
+
+    private static void assertPrefixEquals(int[] expected, int[] actual, int length) {
+        for (int i = 0; i < length; i++)
+            assertEquals(expected[i], actual[i]);
+    }
+
+    @Test
+    public void roundTripsScalarArrays() throws Exception {
+        Mat m = new Mat();
+
+        float[] fs = floats(8);
+        Converters.array_float_to_Mat(fs, 5, m);
+        assertEquals(CvType.CV_32FC1, m.type());
+        assertEquals(5, m.rows());
+        float[] fsOut = new float[6];
+        assertEquals(5, Converters.Mat_to_array_float(m, fsOut));
+        assertPrefixEquals(fs, fsOut, 5);
+
+        int[] is = ints(7);
+        Converters.array_int_to_Mat(is, 7, m);
+        int[] isOut = new int[7];
+        assertEquals(7, Converters.Mat_to_array_int(m, isOut));
+        assertArrayEquals(is, isOut);
+
+        double[] ds = { 1e-300, -2.5, 3e12, 0 };
+        Converters.array_double_to_Mat(ds, 3, m);
+        double[] dsOut = new double[3];
+        assertEquals(3, Converters.Mat_to_array_double(m, dsOut));
+        assertArrayEquals(Arrays.copyOf(ds, 3), dsOut, 0);
+
+        byte[] bs = { 0, 1, (byte) 128, (byte) 255, 42 };
+        Converters.array_uchar_to_Mat(bs, 5, m);
+        byte[] bsOut = new byte[5];
+        assertEquals(5, Converters.Mat_to_array_uchar(m, bsOut));
+        assertArrayEquals(bs, bsOut);
+
+        Converters.array_float_to_Mat(fs, 0, m);
+        assertTrue(m.empty());
+        assertEquals(0, Converters.Mat_to_array_float(m, fsOut));
+        m.release();
+    }
+
+    @Test
+    public void roundTripsPointsAndKeyPoints() throws Exception {
+        Mat m = new Mat();
+
+        int[] xy = ints(10);
+        Converters.array_Point_to_Mat(xy, 4, m);
+        assertEquals(CvType.CV_32SC2, m.type());
+        int[] xyOut = new int[8];
+        assertEquals(4, Converters.Mat_to_array_Point(m, xyOut));
+        assertPrefixEquals(xy, xyOut, 8);
+
+        float[] xyf = floats(6);
+        Converters.array_Point2f_to_Mat(xyf, 3, m);
+        float[] xyfOut = new float[6];
+        assertEquals(3, Converters.Mat_to_array_Point2f(m, xyfOut));
+        assertArrayEquals(xyf, xyfOut, 0);
+
+        float[] kps = floats(21);
+        Converters.array_KeyPoint_to_Mat(kps, 2, m);
+        assertEquals(CvType.CV_32FC(7), m.type());
+        float[] kpsOut = new float[14];
+        assertEquals(2, Converters.Mat_to_array_KeyPoint(m, kpsOut));
+        assertPrefixEquals(kps, kpsOut, 14);
+        m.release();
+    }
+
+    @Test
+    public void roundTripsRectBuffer() throws Exception {
+        RectBuffer rects = new RectBuffer(2);
+        rects.set(0, 1, 2, 3, 4);
+        rects.set(1, -5, 6, 70, 80);
+        rects.count = 2;
+        Mat m = new Mat();
+        Converters.RectBuffer_to_Mat(rects, m);
+
+        RectBuffer out = new RectBuffer(1);
+        Converters.Mat_to_RectBuffer(m, out);
+        assertEquals(2, out.count);
+        assertEquals(new Rect(1, 2, 3, 4), out.get(0, new Rect()));
+        assertEquals(new Rect(-5, 6, 70, 80), out.get(1, new Rect()));
+        m.release();
+    }
+
+    @Test
+    public void rejectsWrongTypeBeforeGrowingRectBuffer() throws Exception {
+        Mat m = new Mat(1000, 1, CvType.CV_32FC4);
+        RectBuffer out = new RectBuffer(1);
+        int[] data = out.data;
+        try {
+            Converters.Mat_to_RectBuffer(m, out);
+            fail();
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+        assertSame(data, out.data);
+        m.release();
+    }
+
+    @Test
+    public void roundTripsMatOfBuffers() throws Exception {
+        MatOfRect rects = new MatOfRect();
+        int[] r = ints(12);
+        rects.fromArray(r, 2);
+        int[] rOut = new int[8];
+        assertEquals(2, rects.toArray(rOut));
+        assertPrefixEquals(r, rOut, 8);
+        RectBuffer buffer = new RectBuffer(1);
+        assertEquals(2, rects.toArray(buffer));
+        assertPrefixEquals(r, buffer.data, 8);
+        rects.release();
+
+        MatOfPoint points = new MatOfPoint();
+        int[] p = ints(6);
+        points.fromArray(p, 3);
+        int[] pOut = new int[6];
+        assertEquals(3, points.toArray(pOut));
+        assertArrayEquals(p, pOut);
+        points.release();
+
+        MatOfFloat fs = new MatOfFloat();
+        float[] f = floats(5);
+        fs.fromArray(f, 4);
+        float[] fOut = new float[4];
+        assertEquals(4, fs.toArray(fOut));
+        assertPrefixEquals(f, fOut, 4);
+        fs.release();
+
+        MatOfKeyPoint keyPoints = new MatOfKeyPoint();
+        float[] kp = floats(14);
+        keyPoints.fromArray(kp, 2);
+        float[] kpOut = new float[14];
+        assertEquals(2, keyPoints.toArray(kpOut));
+        assertArrayEquals(kp, kpOut, 0);
+        keyPoints.release();
+
+        MatOfDMatch matches = new MatOfDMatch();
+        float[] dm = floats(12);
+        matches.fromArray(dm, 3);
+        float[] dmOut = new float[12];
+        assertEquals(3, matches.toArray(dmOut));
+        assertArrayEquals(dm, dmOut, 0);
+        matches.release();
+    }
+
+    @Test(expected = RuntimeException.class)
+    public void rejectsMatOfKeyPointOfWrongType() throws Exception {
+        // the constructor taking a Mat would already reject it
+        MatOfKeyPoint keyPoints = new MatOfKeyPoint();
+        new Mat(3, 1, CvType.CV_32FC4).copyTo(keyPoints);
+        keyPoints.toArray(new float[21]);
+    }
+}
@@ -0,0 +1,166 @@
+package wda.test.opencv.eyedetecting;
+
+import android.content.Context;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+import android.util.Log;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.opencv.core.Core;
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.core.Point;
+import org.opencv.core.Rect;
+import org.opencv.core.Scalar;
+import org.opencv.core.Size;
+import org.opencv.imgproc.Imgproc;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.InputStream;
+
+import static org.junit.Assert.*;
+
+/**
+ * Instrumentation test and scalability benchmark of EyeSearchPool on synthetic faces. The
+ * benchmark logs the time per frame for 1 to 8 faces with one thread and with the pool size
+ * used by MainActivity.
+ */
+@RunWith(AndroidJUnit4.class)
+public class EyeSearchPoolTest extends OpenCVTestCase {
+
+    private static final String TAG = "EyeSearchPoolTest";
+    private static final int FACE_SIZE = 160;
+    private static final int WARMUP_RUNS = 3;
+    private static final int RUNS = 10;
+
+    private static String sCascadeFile;
+
+    @BeforeClass
+    public static void copyCascade() throws Exception {
+        Context context = InstrumentationRegistry.getTargetContext();
+        InputStream is = context.getResources().openRawResource(R.raw.haarcascade_lefteye_2splits);
+        File file = new File(context.getDir("cascade", Context.MODE_PRIVATE), "haarcascade_lefteye_2splits.xml");
+        FileOutputStream os = new FileOutputStream(file);
+        byte[] buffer = new byte[4096];
+        int bytesRead;
+        while ((bytesRead = is.read(buffer)) != -1)
+            os.write(buffer, 0, bytesRead);
+        is.close();
+        os.close();
+        sCascadeFile = file.getAbsolutePath();
+    }
+
+    // a 640x480 frame with up to 8 synthetic faces in a 4x2 grid, each with two dark eyes
+    private static Mat syntheticFrame() {
+        Mat frame = new Mat(480, 640, CvType.CV_8UC1);
+        Core.randu(frame, 90, 170);
+        Imgproc.GaussianBlur(frame, frame, new Size(5, 5), 0);
+        for (int i = 0; i < 8; i++) {
+            Rect face = face(i);
+            Imgproc.ellipse(frame, new Point(face.x + 80, face.y + 80), new Size(70, 80), 0, 0, 360,
+                    new Scalar(190), -1);
+            for (int side = 0; side < 2; side++) {
+                Point eye = new Point(face.x + 50 + 60 * side, face.y + 65);
+                Imgproc.ellipse(frame, eye, new Size(18, 9), 0, 0, 360, new Scalar(230), -1);
+                Imgproc.circle(frame, eye, 7, new Scalar(30), -1);
+                Imgproc.line(frame, new Point(eye.x - 20, eye.y - 18), new Point(eye.x + 20, eye.y - 18),
+                        new Scalar(60), 4);
+            }
+        }
+        return frame;
+    }
+
+    private static Rect face(int i) {
+        return new Rect(FACE_SIZE * (i % 4), 80 + FACE_SIZE * (i / 4), FACE_SIZE, FACE_SIZE);
+    }
+
+    // the eye areas of the faces, as computed by MainActivity
+    private static EyeSearch.Task[] tasks(int faces) {
+        EyeSearch.Task[] tasks = new EyeSearch.Task[2 * faces];
+        for (int i = 0; i < faces; i++) {
+            Rect r = face(i);
+            Rect right = new Rect(r.x + r.width / 16, (int) (r.y + (r.height / 4.5)),
+                    (r.width - 2 * r.width / 16) / 2, (int) (r.height / 3.0));
+            Rect left = new Rect(right.x + right.width, right.y, right.width, right.height);
+            tasks[2 * i] = new EyeSearch.Task();
+            tasks[2 * i].set(right, 24, true);
+            tasks[2 * i + 1] = new EyeSearch.Task();
+            tasks[2 * i + 1].set(left, 24, true);
+        }
+        return tasks;
+    }
+
+    private static int threads() {
+        return Math.max(2, Math.min(Runtime.getRuntime().availableProcessors(), 4));
+    }
+
+    @Test
+    public void parallelMatchesSequential() throws Exception {
+        Mat frame = syntheticFrame();
+        EyeSearchPool sequential = new EyeSearchPool(sCascadeFile, 1);
+        EyeSearchPool parallel = new EyeSearchPool(sCascadeFile, threads());
+        assertTrue(sequential.isLoaded());
+        assertTrue(parallel.isLoaded());
+
+        EyeSearch.Task[] expected = tasks(8);
+        EyeSearch.Task[] actual = tasks(8);
+        expected[3].search = false;
+        actual[3].search = false;
+        sequential.run(frame, expected, expected.length);
+        parallel.run(frame, actual, actual.length);
+
+        assertNull(actual[3].template);
+        for (int i = 0; i < expected.length; i++) {
+            assertEquals(expected[i].template == null, actual[i].template == null);
+            if (expected[i].template != null) {
+                assertEquals(expected[i].eye, actual[i].eye);
+                assertEquals(expected[i].iris, actual[i].iris);
+                assertEquals(0, Core.norm(expected[i].template, actual[i].template), 0);
+            }
+        }
+        sequential.release();
+        parallel.release();
+        frame.release();
+    }
+
+    @Test
+    public void scalability() throws Exception {
+        Mat frame = syntheticFrame();
+        int threads = threads();
+        EyeSearchPool sequential = new EyeSearchPool(sCascadeFile, 1);
+        EyeSearchPool parallel = new EyeSearchPool(sCascadeFile, threads);
+
+        for (int faces = 1; faces <= 8; faces++) {
+            EyeSearch.Task[] tasks = tasks(faces);
+            double sequentialMs = timePerRun(sequential, frame, tasks);
+            double parallelMs = timePerRun(parallel, frame, tasks);
+            Log.i(TAG, faces + " faces: " + String.format("%.2f", sequentialMs) + " ms with 1 thread, "
+                    + String.format("%.2f", parallelMs) + " ms with " + threads + " threads, speedup "
+                    + String.format("%.2f", sequentialMs / parallelMs));
+        }
+        sequential.release();
+        parallel.release();
+        frame.release();
+    }
+
+    private static double timePerRun(EyeSearchPool pool, Mat frame, EyeSearch.Task[] tasks) {
+        for (int i = 0; i < WARMUP_RUNS; i++)
+            run(pool, frame, tasks);
+        long start = System.nanoTime();
+        for (int i = 0; i < RUNS; i++)
+            run(pool, frame, tasks);
+        return (System.nanoTime() - start) / 1e6 / RUNS;
+    }
+
+    private static void run(EyeSearchPool pool, Mat frame, EyeSearch.Task[] tasks) {
+        pool.run(frame, tasks, tasks.length);
+        for (EyeSearch.Task task : tasks) {
+            if (task.template != null)
+                task.template.release();
+            task.template = null;
+        }
+    }
+}
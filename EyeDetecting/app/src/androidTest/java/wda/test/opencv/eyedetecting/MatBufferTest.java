@@ -0,0 +1,139 @@
+package wda.test.opencv.eyedetecting;
+
+import android.support.test.runner.AndroidJUnit4;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.core.MatBuffer;
+import org.opencv.core.MatScope;
+import org.opencv.core.Rect;
+
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+
+import static org.junit.Assert.*;
+
+/**
+ * Instrumentation test for MatBuffer.
+ */
+@RunWith(AndroidJUnit4.class)
+public class MatBufferTest extends OpenCVTestCase {
+
+    @Test
+    public void readsContinuousMat() throws Exception {
+        Mat m = sequence(4, 5, CvType.CV_8UC1);
+        MatBuffer buffer = new MatBuffer(m);
+        ByteBuffer bytes = buffer.bytes();
+
+        assertEquals(20, bytes.limit());
+        assertEquals(13, bytes.get(buffer.index(2, 3)));
+        m.release();
+    }
+
+    @Test
+    public void packsSubmatrixRows() throws Exception {
+        Mat m = sequence(6, 8, CvType.CV_8UC1);
+        Mat roi = m.submat(new Rect(2, 1, 3, 4));
+        assertFalse(roi.isContinuous());
+
+        MatBuffer buffer = new MatBuffer(roi);
+        ByteBuffer bytes = buffer.bytes();
+
+        assertEquals(3, buffer.cols());
+        assertEquals(12, bytes.limit());
+        for (int row = 0; row < 4; row++)
+            for (int col = 0; col < 3; col++)
+                assertEquals((row + 1) * 8 + col + 2, bytes.get(buffer.index(row, col)));
+        m.release();
+    }
+
+    @Test
+    public void writesBackIntoSubmatrixOnly() throws Exception {
+        Mat m = sequence(6, 8, CvType.CV_8UC1);
+        Mat roi = m.submat(new Rect(2, 1, 3, 4));
+        MatBuffer buffer = new MatBuffer(roi);
+        ByteBuffer bytes = buffer.bytes();
+        for (int i = 0; i < bytes.limit(); i++)
+            bytes.put(i, (byte) 100);
+        buffer.writeBack();
+
+        byte[] pixel = new byte[1];
+        m.get(1, 2, pixel);
+        assertEquals(100, pixel[0]);
+        m.get(4, 4, pixel);
+        assertEquals(100, pixel[0]);
+        m.get(1, 1, pixel);
+        assertEquals(9, pixel[0]);
+        m.get(1, 5, pixel);
+        assertEquals(13, pixel[0]);
+        m.release();
+    }
+
+    @Test
+    public void readsFloatChannels() throws Exception {
+        Mat m = new Mat(2, 3, CvType.CV_32FC2);
+        m.put(1, 2, new float[] { 1.5f, -2.5f });
+        MatBuffer buffer = new MatBuffer(m);
+        FloatBuffer floats = buffer.floats();
+
+        assertEquals(12, floats.limit());
+        assertEquals(1.5f, floats.get(buffer.index(1, 2)), 0);
+        assertEquals(-2.5f, floats.get(buffer.index(1, 2) + 1), 0);
+        m.release();
+    }
+
+    @Test
+    public void isInvalidatedByReleaseAndCreate() throws Exception {
+        Mat m = sequence(4, 5, CvType.CV_8UC1);
+        MatBuffer buffer = new MatBuffer(m);
+        assertTrue(buffer.isValid());
+
+        m.create(8, 8, CvType.CV_8UC1);
+        assertFalse(buffer.isValid());
+        buffer.reload();
+        assertTrue(buffer.isValid());
+        assertEquals(64, buffer.bytes().limit());
+
+        m.release();
+        assertFalse(buffer.isValid());
+        try {
+            buffer.bytes();
+            fail();
+        } catch (IllegalStateException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void isInvalidatedByRecreationWithSameSize() throws Exception {
+        Mat m = sequence(4, 5, CvType.CV_8UC1);
+        MatBuffer buffer = new MatBuffer(m);
+
+        // the allocator may hand back the same address, size and type
+        m.release();
+        m.create(4, 5, CvType.CV_8UC1);
+        assertFalse(buffer.isValid());
+        buffer.reload();
+        assertTrue(buffer.isValid());
+
+        Mat other = sequence(4, 5, CvType.CV_8UC1);
+        other.assignTo(m);
+        assertFalse(buffer.isValid());
+        other.release();
+        m.release();
+    }
+
+    @Test
+    public void isInvalidatedByMatScope() throws Exception {
+        MatScope scope = MatScope.open();
+        MatBuffer buffer;
+        try {
+            buffer = new MatBuffer(sequence(4, 5, CvType.CV_8UC1));
+        } finally {
+            scope.close();
+        }
+        assertFalse(buffer.isValid());
+    }
+}
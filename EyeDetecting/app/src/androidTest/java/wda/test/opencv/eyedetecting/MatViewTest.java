@@ -0,0 +1,121 @@
+package wda.test.opencv.eyedetecting;
+
+import android.support.test.runner.AndroidJUnit4;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.opencv.core.Core;
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.core.MatView;
+import org.opencv.core.Rect;
+import org.opencv.core.Scalar;
+import org.opencv.core.Size;
+import org.opencv.imgproc.Imgproc;
+
+import static org.junit.Assert.*;
+
+/**
+ * Instrumentation test comparing MatView with submat().
+ */
+@RunWith(AndroidJUnit4.class)
+public class MatViewTest extends OpenCVTestCase {
+
+    private static void assertSameAsSubmat(Mat parent, Rect roi, MatView view) {
+        Mat expected = parent.submat(roi);
+        assertSame(view, view.set(parent, roi));
+        assertEquals(expected.rows(), view.rows());
+        assertEquals(expected.cols(), view.cols());
+        assertEquals(expected.type(), view.type());
+        assertEquals(expected.dataAddr(), view.dataAddr());
+        assertEquals(expected.step1(), view.step1());
+        assertEquals(expected.isContinuous(), view.isContinuous());
+        assertEquals(0, Core.norm(expected, view), 0);
+        expected.release();
+    }
+
+    @Test
+    public void matchesSubmat() throws Exception {
+        Mat m = sequence(12, 16, CvType.CV_8UC4);
+        MatView view = new MatView();
+        assertSameAsSubmat(m, new Rect(0, 0, 16, 12), view);
+        assertSameAsSubmat(m, new Rect(3, 2, 5, 4), view);
+        assertSameAsSubmat(m, new Rect(10, 9, 6, 3), view);
+        assertSameAsSubmat(m, new Rect(0, 5, 16, 1), view);
+        assertSameAsSubmat(m, new Rect(4, 0, 1, 12), view);
+        assertSameAsSubmat(m, new Rect(1, 1, 2, 2), view);
+        assertEquals(1, view.x());
+        assertEquals(1, view.y());
+        assertSame(m, view.parent());
+        view.release();
+        m.release();
+    }
+
+    @Test
+    public void matchesSubmatOfSubmat() throws Exception {
+        Mat m = sequence(20, 20, CvType.CV_8UC1);
+        Mat outer = m.submat(new Rect(4, 5, 10, 8));
+        MatView outerView = new MatView(m, new Rect(4, 5, 10, 8));
+        MatView view = new MatView();
+
+        assertSameAsSubmat(outer, new Rect(2, 3, 4, 4), view);
+        assertSameAsSubmat(outerView, new Rect(2, 3, 4, 4), view);
+        assertSameAsSubmat(outerView, new Rect(6, 4, 4, 4), view);
+
+        // re-pointing the parent view does not move the views already taken from it
+        long addr = view.dataAddr();
+        outerView.set(m, new Rect(0, 0, 10, 8));
+        assertEquals(addr, view.dataAddr());
+        assertSameAsSubmat(outerView, new Rect(6, 4, 4, 4), view);
+        view.release();
+        outerView.release();
+        m.release();
+    }
+
+    @Test
+    public void emptyRegion() throws Exception {
+        Mat m = sequence(8, 8, CvType.CV_8UC1);
+        MatView view = new MatView(m, new Rect(2, 2, 4, 4));
+        view.set(m, new Rect(0, 0, 0, 0));
+        assertTrue(view.empty());
+        assertEquals(m.submat(new Rect(0, 0, 0, 0)).empty(), view.empty());
+
+        view.set(m, new Rect(8, 3, 0, 2));
+        assertTrue(view.empty());
+        assertSameAsSubmat(m, new Rect(2, 2, 4, 4), view);
+        m.release();
+    }
+
+    @Test
+    public void writesThroughToParent() throws Exception {
+        Mat m = Mat.zeros(10, 10, CvType.CV_8UC1);
+        MatView view = new MatView(m, new Rect(2, 3, 4, 5));
+        view.setTo(new Scalar(1));
+        assertEquals(20, Core.sumElems(m).val[0], 0);
+        assertEquals(20, Core.sumElems(m.submat(new Rect(2, 3, 4, 5))).val[0], 0);
+        m.release();
+    }
+
+    @Test
+    public void worksAsFunctionInput() throws Exception {
+        Mat m = sequence(30, 40, CvType.CV_8UC1);
+        Rect roi = new Rect(5, 7, 13, 11);
+        Mat expected = new Mat();
+        Mat actual = new Mat();
+        Imgproc.resize(m.submat(roi), expected, new Size(26, 22));
+        Imgproc.resize(new MatView(m, roi), actual, new Size(26, 22));
+        assertEquals(0, Core.norm(expected, actual), 0);
+
+        Core.MinMaxLocResult expectedMinMax = Core.minMaxLoc(m.submat(roi));
+        Core.MinMaxLocResult actualMinMax = Core.minMaxLoc(new MatView(m, roi));
+        assertEquals(expectedMinMax.minLoc, actualMinMax.minLoc);
+        assertEquals(expectedMinMax.maxLoc, actualMinMax.maxLoc);
+        m.release();
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsRegionOutsideOfParent() throws Exception {
+        Mat m = new Mat(8, 8, CvType.CV_8UC1);
+        new MatView().set(m, new Rect(5, 5, 4, 2));
+    }
+}
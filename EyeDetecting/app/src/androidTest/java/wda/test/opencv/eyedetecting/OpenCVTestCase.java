@@ -0,0 +1,43 @@
+package wda.test.opencv.eyedetecting;
+
+import org.junit.BeforeClass;
+import org.opencv.android.OpenCVLoader;
+import org.opencv.core.Core;
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+
+import static org.junit.Assert.*;
+
+/**
+ * Base of the instrumentation tests which call OpenCV: loads the native library once per test
+ * class, and creates test Mats.
+ */
+public abstract class OpenCVTestCase {
+
+    @BeforeClass
+    public static void loadOpenCV() {
+        assertTrue(OpenCVLoader.initDebug());
+    }
+
+    /**
+     * Returns a Mat of an 8-bit type whose bytes, row by row, are 0, 1, 2, ... wrapping around
+     * at 256.
+     */
+    protected static Mat sequence(int rows, int cols, int type) {
+        Mat m = new Mat(rows, cols, type);
+        byte[] data = new byte[rows * cols * CvType.channels(type)];
+        for (int i = 0; i < data.length; i++)
+            data[i] = (byte) i;
+        m.put(0, 0, data);
+        return m;
+    }
+
+    /**
+     * Returns a Mat of uniformly distributed values in [0, 256).
+     */
+    protected static Mat random(int rows, int cols, int type) {
+        Mat m = new Mat(rows, cols, type);
+        Core.randu(m, 0, 256);
+        return m;
+    }
+}
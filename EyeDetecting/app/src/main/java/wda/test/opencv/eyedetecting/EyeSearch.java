@@ -0,0 +1,112 @@
+package wda.test.opencv.eyedetecting;
+
+import org.opencv.core.Core;
+import org.opencv.core.Mat;
+import org.opencv.core.MatOfRect;
+import org.opencv.core.MatScope;
+import org.opencv.core.MatView;
+import org.opencv.core.Point;
+import org.opencv.core.Rect;
+import org.opencv.core.RectBuffer;
+import org.opencv.core.Size;
+import org.opencv.objdetect.CascadeClassifier;
+import org.opencv.objdetect.Objdetect;
+
+/**
+ * Finds the eye in an eye area of the gray frame, its darkest point (the iris) and a template
+ * around it. Only reads the frame, and has its own cascade and Mats, so that one EyeSearch per
+ * thread can process the eyes of a frame in parallel; see EyeSearchPool.
+ */
+class EyeSearch {
+
+    /**
+     * The input and results of the search in one eye area.
+     */
+    static final class Task {
+        final Rect area = new Rect();
+        int templateSize;
+        // false skips the search, leaving the template null
+        boolean search;
+
+        // results: the template is null if no eye was found, then the other results are unset
+        Mat template;
+        // the eye without the eyebrow, in frame coordinates
+        final Rect eye = new Rect();
+        // the darkest point of the eye, relative to the eye
+        final Point iris = new Point();
+
+        void set(Rect area, int templateSize, boolean search) {
+            this.area.x = area.x;
+            this.area.y = area.y;
+            this.area.width = area.width;
+            this.area.height = area.height;
+            this.templateSize = templateSize;
+            this.search = search;
+            template = null;
+        }
+    }
+
+    private final CascadeClassifier mClassifier;
+    private final MatView mAreaView = new MatView();
+    private final MatView mEyeView = new MatView();
+    private final MatView mTemplateView = new MatView();
+    private final MatOfRect mEyes = new MatOfRect();
+    private final RectBuffer mEyeBuffer = new RectBuffer();
+    private final Rect mEye = new Rect();
+    private final Rect mTemplateRect = new Rect();
+    private final Core.MinMaxLocResult mMinMax = new Core.MinMaxLocResult();
+    private final Size mMinSize = new Size(20, 20);
+    private final Size mMaxSize = new Size();
+
+    EyeSearch(String cascadeFile) {
+        mClassifier = new CascadeClassifier(cascadeFile);
+    }
+
+    boolean isLoaded() {
+        return !mClassifier.empty();
+    }
+
+    void run(Mat gray, Task task) {
+        task.template = null;
+        if (!task.search)
+            return;
+
+        MatScope scope = MatScope.open();
+        try {
+            mClassifier.detectMultiScale(mAreaView.set(gray, task.area), mEyes, 2.15, 2,
+                    Objdetect.CASCADE_FIND_BIGGEST_OBJECT
+                            | Objdetect.CASCADE_SCALE_IMAGE, mMinSize, mMaxSize);
+            if (mEyes.toArray(mEyeBuffer) == 0)
+                return;
+
+            // the first eye, without the eyebrow
+            Rect e = mEyeBuffer.get(0, mEye);
+            e.x = task.area.x + e.x;
+            e.y = task.area.y + e.y;
+            task.eye.x = e.x;
+            task.eye.y = (int) (e.y + e.height * 0.4);
+            task.eye.width = e.width;
+            task.eye.height = (int) (e.height * 0.6);
+
+            Core.minMaxLoc(mEyeView.set(gray, task.eye), null, mMinMax);
+            task.iris.x = mMinMax.minLoc.x;
+            task.iris.y = mMinMax.minLoc.y;
+
+            int size = task.templateSize;
+            mTemplateRect.x = (int) (task.iris.x + task.eye.x) - size / 2;
+            mTemplateRect.y = (int) (task.iris.y + task.eye.y) - size / 2;
+            mTemplateRect.width = size;
+            mTemplateRect.height = size;
+            task.template = scope.keep(mTemplateView.set(gray, mTemplateRect).clone());
+        } finally {
+            scope.close();
+        }
+    }
+
+    void release() {
+        mAreaView.release();
+        mEyeView.release();
+        mTemplateView.release();
+        mEyes.release();
+    }
+}
@@ -0,0 +1,130 @@
+package wda.test.opencv.eyedetecting;
+
+import org.opencv.core.Mat;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Runs the eye searches of a frame on a bounded pool of worker threads and waits for all of
+ * them, so that the caller can draw the results single-threaded afterwards.
+ * <p>
+ * Each worker thread takes one of the EyeSearches, which are not thread-safe because of their
+ * cascade and Mats, for the duration of a task. With one thread the tasks run on the calling
+ * thread. The frame is only read while the tasks run.
+ */
+class EyeSearchPool {
+
+    private final EyeSearch[] mSearches;
+    private final ArrayBlockingQueue<EyeSearch> mIdle;
+    private final ExecutorService mExecutor;
+    // reused for every run
+    private final ArrayList<Call> mCalls = new ArrayList<Call>();
+
+    // One task of a run
+    private final class Call implements Callable<Void> {
+        Mat gray;
+        EyeSearch.Task task;
+
+        @Override
+        public Void call() throws Exception {
+            EyeSearch search = mIdle.take();
+            try {
+                search.run(gray, task);
+            } finally {
+                mIdle.put(search);
+            }
+            return null;
+        }
+    }
+
+    EyeSearchPool(String cascadeFile, int threads) {
+        if (threads < 1)
+            throw new IllegalArgumentException("threads must be at least 1");
+        mSearches = new EyeSearch[threads];
+        mIdle = new ArrayBlockingQueue<EyeSearch>(threads);
+        for (int i = 0; i < threads; i++) {
+            mSearches[i] = new EyeSearch(cascadeFile);
+            mIdle.add(mSearches[i]);
+        }
+        if (threads == 1) {
+            mExecutor = null;
+        } else {
+            mExecutor = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+                private int mCount;
+
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread thread = new Thread(r, "EyeSearch-" + (++mCount));
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+    }
+
+    int getThreadCount() {
+        return mSearches.length;
+    }
+
+    boolean isLoaded() {
+        return mSearches[0].isLoaded();
+    }
+
+    /**
+     * Runs the first count tasks on the gray frame and returns when all of them are done.
+     */
+    void run(Mat gray, EyeSearch.Task[] tasks, int count) {
+        if (mExecutor == null || count <= 1) {
+            for (int i = 0; i < count; i++)
+                mSearches[0].run(gray, tasks[i]);
+            return;
+        }
+
+        while (mCalls.size() < count)
+            mCalls.add(new Call());
+        List<Call> calls = mCalls.subList(0, count);
+        for (int i = 0; i < count; i++) {
+            Call call = calls.get(i);
+            call.gray = gray;
+            call.task = tasks[i];
+        }
+        try {
+            List<Future<Void>> results = mExecutor.invokeAll(calls);
+            for (int i = 0; i < results.size(); i++)
+                results.get(i).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while searching eyes", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException)
+                throw (RuntimeException) cause;
+            throw new IllegalStateException("Eye search failed", cause);
+        } finally {
+            for (int i = 0; i < count; i++) {
+                Call call = calls.get(i);
+                call.gray = null;
+                call.task = null;
+            }
+        }
+    }
+
+    /**
+     * Stops the worker threads and releases the Mats of the searches; must not be called while
+     * run() is in progress.
+     */
+    void release() {
+        if (mExecutor != null)
+            mExecutor.shutdown();
+        for (int i = 0; i < mSearches.length; i++)
+            mSearches[i].release();
+    }
+}
@@ -22,13 +22,16 @@ import org.opencv.core.Core;
 import org.opencv.core.CvType;
 import org.opencv.core.Mat;
 import org.opencv.core.MatOfRect;
+import org.opencv.core.MatScope;
+import org.opencv.core.MatView;
+import org.opencv.core.MatTracker;
 import org.opencv.core.Point;
 import org.opencv.core.Rect;
+import org.opencv.core.RectBuffer;
 import org.opencv.core.Scalar;
 import org.opencv.core.Size;
 import org.opencv.imgproc.Imgproc;
 import org.opencv.objdetect.CascadeClassifier;
-import org.opencv.objdetect.Objdetect;
 
 import java.io.File;
 import java.io.FileOutputStream;
@@ -48,6 +51,13 @@ public class MainActivity extends Activity implements CvCameraViewListener2 {
     private static final int TM_CCOEFF_NORMED = 3;
     private static final int TM_CCORR = 4;
     private static final int TM_CCORR_NORMED = 5;
+    private static final int SCOPE_REPORT_FRAMES = 30;
+    // set to track native Mat memory and log leaks; records the creation site of every 16th Mat
+    private static final boolean TRACK_MATS = false;
+    private static final int TRACK_MATS_SAMPLE_INTERVAL = 16;
+    // upper bound of the eye search threads, which also use the camera thread's core
+    private static final int MAX_EYE_SEARCH_THREADS = 4;
+    private static final int EYE_TEMPLATE_SIZE = 24;
 
 
     private int learn_frames = 0;
@@ -63,14 +73,27 @@ public class MainActivity extends Activity implements CvCameraViewListener2 {
     private MenuItem mItemFace40;
     private MenuItem mItemFace30;
     private MenuItem mItemFace20;
+    private MenuItem mItemPreviewFormat;
     // private MenuItem           	mItemType;
 
+    // reused for the detections of every frame instead of a new Rect[] and Rects per call
+    private final RectBuffer mFaces = new RectBuffer();
+    private final Rect mFace = new Rect();
+
+    // regions of mGray and mRgba, re-pointed every frame instead of a new submat per use
+    private MatView mAreaView;
+    private MatView mEyeRgbaView;
+    private MatView mZoomSourceView;
+
+    // the eyes of all faces are searched in parallel, two tasks per face
+    private EyeSearchPool mEyeSearchPool;
+    private EyeSearch.Task[] mEyeTasks = new EyeSearch.Task[0];
+
     private Mat mRgba;
     private Mat mGray;
     private File mCascadeFile;
     private File mCascadeFileEye;
     private CascadeClassifier mJavaDetector;
-    private CascadeClassifier mJavaDetectorEye;
 
 
     private int mDetectorType = JAVA_DETECTOR;
@@ -88,8 +111,18 @@ public class MainActivity extends Activity implements CvCameraViewListener2 {
 
     boolean showZoomWindows = false;
 
+    // in gray preview only the luma plane is captured, and the overlays are drawn into mGray
+    boolean grayPreview = false;
+
+    // MatScope statistics since the last report
+    private int mScopeFrames;
+    private long mScopeMats;
+    private long mScopeLeakedMats;
+    private long mScopeLeakedBytes;
+
     Random random = new Random();
-    Scalar scalar = new Scalar(random.nextInt(255), random.nextInt(255), random.nextInt(255), random.nextInt(100) + 55);
+    // replaced on the UI thread by onRecreateClick() and read by the camera thread
+    volatile Scalar scalar = new Scalar(random.nextInt(255), random.nextInt(255), random.nextInt(255), random.nextInt(100) + 55);
 
     private BaseLoaderCallback mLoaderCallback = new BaseLoaderCallback(this) {
         @Override
@@ -132,13 +165,6 @@ public class MainActivity extends Activity implements CvCameraViewListener2 {
                         } else
                             Log.i(TAG, "Loaded cascade classifier from " + mCascadeFile.getAbsolutePath());
 
-                        mJavaDetectorEye = new CascadeClassifier(mCascadeFileEye.getAbsolutePath());
-                        if (mJavaDetectorEye.empty()) {
-                            Log.e(TAG, "Failed to load cascade classifier for eye");
-                            mJavaDetectorEye = null;
-                        } else
-                            Log.i(TAG, "Loaded cascade classifier from " + mCascadeFileEye.getAbsolutePath());
-
                         cascadeDir.delete();
                         cascadeDirEye.delete();
 
@@ -173,6 +199,8 @@ public class MainActivity extends Activity implements CvCameraViewListener2 {
         Log.i(TAG, "called onCreate");
         super.onCreate(savedInstanceState);
         getWindow().addFlags(WindowManager.LayoutParams.FLAG_KEEP_SCREEN_ON);
+        if (TRACK_MATS)
+            MatTracker.enable(TRACK_MATS_SAMPLE_INTERVAL);
 
         setContentView(R.layout.face_detect_surface_view);
 
@@ -252,21 +280,100 @@ public class MainActivity extends Activity implements CvCameraViewListener2 {
     }
 
     public void onCameraViewStarted(int width, int height) {
-        mGray = new Mat();
-        mRgba = new Mat();
+        mAreaView = new MatView();
+        mEyeRgbaView = new MatView();
+        mZoomSourceView = new MatView();
+
+        // each thread loads its own eye cascade, which can't be shared between threads
+        if (mCascadeFileEye != null) {
+            int threads = Math.min(Runtime.getRuntime().availableProcessors(), MAX_EYE_SEARCH_THREADS);
+            mEyeSearchPool = new EyeSearchPool(mCascadeFileEye.getAbsolutePath(), threads);
+            if (mEyeSearchPool.isLoaded()) {
+                Log.i(TAG, "Loaded cascade classifier from " + mCascadeFileEye.getAbsolutePath()
+                        + " for " + threads + " eye search threads");
+            } else {
+                Log.e(TAG, "Failed to load cascade classifier for eye");
+                mEyeSearchPool.release();
+                mEyeSearchPool = null;
+            }
+        }
     }
 
     public void onCameraViewStopped() {
-        mGray.release();
-        mRgba.release();
-        mZoomWindow.release();
-        mZoomWindow2.release();
+        // mGray and mRgba come from the camera frames, which are released by the camera view
+        // or by the MatScope of the frame
+        mGray = null;
+        mRgba = null;
+        // the views still reference the last frame
+        mAreaView.release();
+        mEyeRgbaView.release();
+        mZoomSourceView.release();
+        if (mEyeSearchPool != null) {
+            mEyeSearchPool.release();
+            mEyeSearchPool = null;
+        }
+        if (MatTracker.isEnabled())
+            Log.d(TAG, MatTracker.dump());
+        if (mZoomWindow != null) {
+            mZoomWindow.release();
+            mZoomWindow = null;
+        }
+        if (mZoomWindow2 != null) {
+            mZoomWindow2.release();
+            mZoomWindow2 = null;
+        }
     }
 
     public Mat onCameraFrame(CvCameraViewFrame inputFrame) {
+        // every Mat created while processing the frame is freed when the scope closes,
+        // instead of piling up on the native heap until the finalizers run
+        MatScope scope = MatScope.open();
+        Mat lastTemplateR = teplateR;
+        Mat lastTemplateL = teplateL;
+        try {
+            // the returned frame is drawn after the scope is closed
+            return scope.keep(processFrame(inputFrame));
+        } finally {
+            // these outlive the frame
+            scope.keep(mZoomWindow);
+            scope.keep(mZoomWindow2);
+            if (teplateR != lastTemplateR) {
+                scope.keep(teplateR);
+                if (lastTemplateR != null)
+                    lastTemplateR.release();
+            }
+            if (teplateL != lastTemplateL) {
+                scope.keep(teplateL);
+                if (lastTemplateL != null)
+                    lastTemplateL.release();
+            }
+            scope.close();
+            reportMatScope(scope);
+        }
+    }
+
+    private void reportMatScope(MatScope scope) {
+        mScopeFrames++;
+        mScopeMats += scope.getTrackedCount();
+        mScopeLeakedMats += scope.getLeakedCount();
+        mScopeLeakedBytes += scope.getLeakedBytes();
+        if (mScopeFrames == SCOPE_REPORT_FRAMES) {
+            Log.d(TAG, "Per frame: " + (mScopeMats / mScopeFrames) + " Mats created, "
+                    + (mScopeLeakedMats / mScopeFrames) + " not released ("
+                    + (mScopeLeakedBytes / mScopeFrames) + " bytes) freed by MatScope");
+            if (MatTracker.isEnabled())
+                Log.d(TAG, MatTracker.summary());
+            mScopeFrames = 0;
+            mScopeMats = 0;
+            mScopeLeakedMats = 0;
+            mScopeLeakedBytes = 0;
+        }
+    }
+
+    private Mat processFrame(CvCameraViewFrame inputFrame) {
 
-        mRgba = inputFrame.rgba();
         mGray = inputFrame.gray();
+        mRgba = grayPreview ? mGray : inputFrame.rgba();
 
         if (mAbsoluteFaceSize == 0) {
             int height = mGray.rows();
@@ -289,14 +396,22 @@ public class MainActivity extends Activity implements CvCameraViewListener2 {
             Log.e(TAG, "Detection method is not selected!");
         }
 
-        Rect[] facesArray = faces.toArray();
-        for (int i = 0; i < facesArray.length; i++) {
+        int faceCount = faces.toArray(mFaces);
+        if (mEyeTasks.length < 2 * faceCount) {
+            EyeSearch.Task[] tasks = new EyeSearch.Task[2 * faceCount];
+            System.arraycopy(mEyeTasks, 0, tasks, 0, mEyeTasks.length);
+            for (int i = mEyeTasks.length; i < tasks.length; i++)
+                tasks[i] = new EyeSearch.Task();
+            mEyeTasks = tasks;
+        }
+        for (int i = 0; i < faceCount; i++) {
+            Rect r = mFaces.get(i, mFace);
 
             // Face Rectangle
-//            Imgproc.rectangle(mRgba, facesArray[i].tl(), facesArray[i].br(),
+//            Imgproc.rectangle(mRgba, r.tl(), r.br(),
 //                    FACE_RECT_COLOR, 3);
-            xCenter = (facesArray[i].x + facesArray[i].width + facesArray[i].x) / 2;
-            yCenter = (facesArray[i].y + facesArray[i].y + facesArray[i].height) / 2;
+            xCenter = (r.x + r.width + r.x) / 2;
+            yCenter = (r.y + r.y + r.height) / 2;
             Point center = new Point(xCenter, yCenter);
 
 
@@ -308,7 +423,6 @@ public class MainActivity extends Activity implements CvCameraViewListener2 {
 //                    Core.FONT_HERSHEY_SIMPLEX, 0.7, new Scalar(255, 255, 255,
 //                            255));
 
-            Rect r = facesArray[i];
             // compute the eye area
             Rect eyearea = new Rect(r.x + r.width / 8,
                     (int) (r.y + (r.height / 4.5)), r.width - 2 * r.width / 8,
@@ -341,17 +455,38 @@ public class MainActivity extends Activity implements CvCameraViewListener2 {
 //                match_eye(eyearea_left, teplateL, method);
 //
 //            }
-            teplateR = get_template(mJavaDetectorEye, eyearea_right, 24);
-            teplateL = get_template(mJavaDetectorEye, eyearea_left, 24);
+            mEyeTasks[2 * i].set(eyearea_right, EYE_TEMPLATE_SIZE, true);
+            mEyeTasks[2 * i + 1].set(eyearea_left, EYE_TEMPLATE_SIZE, true);
+        }
+
+        // the searches only read mGray; everything is drawn below on this thread
+        if (mEyeSearchPool != null)
+            mEyeSearchPool.run(mGray, mEyeTasks, 2 * faceCount);
+
+        for (int i = 0; i < faceCount; i++) {
+            EyeSearch.Task right = mEyeTasks[2 * i];
+            EyeSearch.Task left = mEyeTasks[2 * i + 1];
+            Mat templateR = drawEye(right);
+            Mat templateL = drawEye(left);
+            // the templates of the last face are kept
+            if (i == faceCount - 1) {
+                teplateR = templateR;
+                teplateL = templateL;
+            } else {
+                templateR.release();
+                templateL.release();
+            }
+            right.template = null;
+            left.template = null;
             //Mini rects eyes
 //            match_eye(eyearea_right, teplateR, method);
 //            match_eye(eyearea_left, teplateL, method);
 
 //            // cut eye areas and put them to zoom windows
             if (showZoomWindows) {
-                Imgproc.resize(mRgba.submat(eyearea_left), mZoomWindow2,
+                Imgproc.resize(mZoomSourceView.set(mRgba, left.area), mZoomWindow2,
                         mZoomWindow2.size());
-                Imgproc.resize(mRgba.submat(eyearea_right), mZoomWindow,
+                Imgproc.resize(mZoomSourceView.set(mRgba, right.area), mZoomWindow,
                         mZoomWindow.size());
             }
         }
@@ -365,6 +500,7 @@ public class MainActivity extends Activity implements CvCameraViewListener2 {
         mItemFace40 = menu.add("Face size 40%");
         mItemFace30 = menu.add("Face size 30%");
         mItemFace20 = menu.add("Face size 20%");
+        mItemPreviewFormat = menu.add(grayPreview ? "Color preview" : "Gray preview");
         return true;
     }
 
@@ -379,6 +515,10 @@ public class MainActivity extends Activity implements CvCameraViewListener2 {
             setMinFaceSize(0.3f);
         else if (item == mItemFace20)
             setMinFaceSize(0.2f);
+        else if (item == mItemPreviewFormat) {
+            setGrayPreview(!grayPreview);
+            item.setTitle(grayPreview ? "Color preview" : "Gray preview");
+        }
 
         return true;
     }
@@ -388,6 +528,17 @@ public class MainActivity extends Activity implements CvCameraViewListener2 {
         mAbsoluteFaceSize = 0;
     }
 
+    /**
+     * Restarts the camera view with the gray-only or the RGBA capture format; compare the two
+     * with the fps meter.
+     */
+    private void setGrayPreview(boolean gray) {
+        mOpenCvCameraView.disableView();
+        grayPreview = gray;
+        mOpenCvCameraView.SetCaptureFormat(gray ? CameraBridgeViewBase.GRAY : CameraBridgeViewBase.RGBA);
+        mOpenCvCameraView.enableView();
+    }
+
     private void CreateAuxiliaryMats() {
         if (mGray.empty())
             return;
@@ -406,7 +557,7 @@ public class MainActivity extends Activity implements CvCameraViewListener2 {
 
     private void match_eye(Rect area, Mat mTemplate, int type) {
         Point matchLoc;
-        Mat mROI = mGray.submat(area);
+        Mat mROI = mAreaView.set(mGray, area);
         int result_cols = mROI.cols() - mTemplate.cols() + 1;
         int result_rows = mROI.rows() - mTemplate.rows() + 1;
         // Check for bad template size
@@ -458,43 +609,12 @@ public class MainActivity extends Activity implements CvCameraViewListener2 {
 
     }
 
-    private Mat get_template(CascadeClassifier clasificator, Rect area, int size) {
-        Mat template = new Mat();
-        Mat mROI = mGray.submat(area);
-        MatOfRect eyes = new MatOfRect();
-        Point iris = new Point();
-        Rect eye_template = new Rect();
-        clasificator.detectMultiScale(mROI, eyes, 2.15, 2,
-                Objdetect.CASCADE_FIND_BIGGEST_OBJECT
-                        | Objdetect.CASCADE_SCALE_IMAGE, new Size(20, 20),
-                new Size());
-
-        Rect[] eyesArray = eyes.toArray();
-        for (int i = 0; i < eyesArray.length; ) {
-            Rect e = eyesArray[i];
-            e.x = area.x + e.x;
-            e.y = area.y + e.y;
-            Rect eye_only_rectangle = new Rect((int) e.tl().x,
-                    (int) (e.tl().y + e.height * 0.4), (int) e.width,
-                    (int) (e.height * 0.6));
-            mROI = mGray.submat(eye_only_rectangle);
-            Mat vyrez = mRgba.submat(eye_only_rectangle);
-            Mat vyrez2 = mRgba.submat(new Rect(0, 0, 0, 0));
-
-
-            Core.MinMaxLocResult mmG = Core.minMaxLoc(mROI);
-
-            Imgproc.circle(vyrez, mmG.minLoc, 10, scalar, 5);
-            iris.x = mmG.minLoc.x + eye_only_rectangle.x;
-            iris.y = mmG.minLoc.y + eye_only_rectangle.y;
-            eye_template = new Rect((int) iris.x - size / 2, (int) iris.y
-                    - size / 2, size, size);
-//            Imgproc.rectangle(mRgba, eye_template.tl(), eye_template.br(),
-//                    new Scalar(255, 0, 0, 255), 2);
-            template = (mGray.submat(eye_template)).clone();
-            return template;
-        }
-        return template;
+    // marks the iris found by the task in mRgba and returns its template, or an empty Mat
+    private Mat drawEye(EyeSearch.Task task) {
+        if (task.template == null)
+            return new Mat();
+        Imgproc.circle(mEyeRgbaView.set(mRgba, task.eye), task.iris, 10, scalar, 5);
+        return task.template;
     }
 
     public void onRecreateClick(View v) {
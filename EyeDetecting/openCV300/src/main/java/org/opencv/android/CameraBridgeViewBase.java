@@ -285,6 +285,13 @@ public abstract class CameraBridgeViewBase extends SurfaceView implements Surfac
         mMaxHeight = maxHeight;
     }
 
+    /**
+     * Selects the frame format. With GRAY, camera views copy and keep only the luma plane of
+     * each frame, rgba() is derived from the gray frame if a listener still asks for it, and
+     * frames are drawn through an RGB_565 cache bitmap, which is half the size of ARGB_8888.
+     * Must be called before the view is enabled (or between disableView() and enableView()).
+     * @param format - RGBA or GRAY
+     */
     public void SetCaptureFormat(int format)
     {
         mPreviewFormat = format;
@@ -454,7 +461,9 @@ public abstract class CameraBridgeViewBase extends SurfaceView implements Surfac
     // NOTE: On Android 4.1.x the function must be called before SurfaceTextre constructor!
     protected void AllocateCache()
     {
-        mCacheBitmap = Bitmap.createBitmap(mFrameWidth, mFrameHeight, Bitmap.Config.ARGB_8888);
+        // A gray frame has no colour or alpha to keep, so RGB_565 halves the conversion and draw cost
+        Bitmap.Config config = (mPreviewFormat == GRAY) ? Bitmap.Config.RGB_565 : Bitmap.Config.ARGB_8888;
+        mCacheBitmap = Bitmap.createBitmap(mFrameWidth, mFrameHeight, config);
     }
 
     public interface ListItemAccessor {
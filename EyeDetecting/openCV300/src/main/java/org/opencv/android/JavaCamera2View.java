@@ -0,0 +1,488 @@
+package org.opencv.android;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import android.annotation.TargetApi;
+import android.content.Context;
+import android.graphics.ImageFormat;
+import android.hardware.camera2.CameraAccessException;
+import android.hardware.camera2.CameraCaptureSession;
+import android.hardware.camera2.CameraCharacteristics;
+import android.hardware.camera2.CameraDevice;
+import android.hardware.camera2.CameraManager;
+import android.hardware.camera2.CaptureRequest;
+import android.hardware.camera2.params.StreamConfigurationMap;
+import android.media.Image;
+import android.media.ImageReader;
+import android.os.Build;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.util.AttributeSet;
+import android.util.Log;
+import android.view.Surface;
+import android.view.ViewGroup.LayoutParams;
+
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.core.Size;
+import org.opencv.imgproc.Imgproc;
+
+/**
+ * This class is an implementation of the Bridge View between OpenCV and the Camera2 API.
+ * Like JavaCameraView, it only implements connectCamera and disconnectCamera, but frames
+ * are received from an ImageReader in YUV_420_888 format with several buffers in flight,
+ * so the camera does not stall on a single callback buffer while a frame is being processed.
+ * The gray frame is taken from the Y plane only; the chroma planes are read and converted
+ * to RGBA only when the listener asks for rgba(), and never in GRAY capture format.
+ * Requires Android 5.0 (API 21) or later.
+ */
+@TargetApi(Build.VERSION_CODES.LOLLIPOP)
+public class JavaCamera2View extends CameraBridgeViewBase {
+
+    private static final String TAG = "JavaCamera2View";
+
+    /* acquireLatestImage() needs one image to discard while holding another */
+    private static final int MAX_IMAGES = 3;
+
+    /* How long to wait for a pending openCamera() to complete */
+    private static final long CAMERA_OPEN_TIMEOUT_MS = 2500;
+
+    private final Object mCameraLock = new Object();
+    /* Held from openCamera() until the state callback has the device, so that
+     * disconnectCamera() can not miss a camera which is still being opened */
+    private final Semaphore mCameraOpenCloseLock = new Semaphore(1);
+    private boolean mCameraOpening;
+    private HandlerThread mBackgroundThread;
+    private Handler mBackgroundHandler;
+    private CameraDevice mCameraDevice;
+    private CameraCaptureSession mCaptureSession;
+    private ImageReader mImageReader;
+    private String mCameraId;
+    private android.util.Size mPreviewSize;
+    private JavaCamera2Frame mCameraFrame;
+
+    public static class JavaCamera2SizeAccessor implements ListItemAccessor {
+
+        @Override
+        public int getWidth(Object obj) {
+            android.util.Size size = (android.util.Size) obj;
+            return size.getWidth();
+        }
+
+        @Override
+        public int getHeight(Object obj) {
+            android.util.Size size = (android.util.Size) obj;
+            return size.getHeight();
+        }
+    }
+
+    public JavaCamera2View(Context context, int cameraId) {
+        super(context, cameraId);
+    }
+
+    public JavaCamera2View(Context context, AttributeSet attrs) {
+        super(context, attrs);
+    }
+
+    protected boolean initializeCamera(int width, int height) {
+        Log.d(TAG, "Initialize camera2");
+        synchronized (mCameraLock) {
+            try {
+                if (!selectCamera(width, height))
+                    return false;
+
+                mFrameWidth = mPreviewSize.getWidth();
+                mFrameHeight = mPreviewSize.getHeight();
+
+                if ((getLayoutParams().width == LayoutParams.MATCH_PARENT) && (getLayoutParams().height == LayoutParams.MATCH_PARENT))
+                    mScale = Math.min(((float)height)/mFrameHeight, ((float)width)/mFrameWidth);
+                else
+                    mScale = 0;
+
+                if (mFpsMeter != null) {
+                    mFpsMeter.setResolution(mFrameWidth, mFrameHeight);
+                }
+
+                AllocateCache();
+
+                mCameraFrame = new JavaCamera2Frame(mFrameWidth, mFrameHeight, mPreviewFormat == GRAY);
+
+                mImageReader = ImageReader.newInstance(mFrameWidth, mFrameHeight, ImageFormat.YUV_420_888, MAX_IMAGES);
+                mImageReader.setOnImageAvailableListener(mOnImageAvailableListener, mBackgroundHandler);
+
+                if (!mCameraOpenCloseLock.tryAcquire(CAMERA_OPEN_TIMEOUT_MS, TimeUnit.MILLISECONDS)) {
+                    Log.e(TAG, "Timed out waiting for the previous camera to be closed");
+                    return false;
+                }
+
+                Log.d(TAG, "Opening camera " + mCameraId + " with preview size " + mFrameWidth + "x" + mFrameHeight);
+                mCameraOpening = true;
+                CameraManager manager = (CameraManager) getContext().getSystemService(Context.CAMERA_SERVICE);
+                manager.openCamera(mCameraId, mStateCallback, mBackgroundHandler);
+                return true;
+            } catch (CameraAccessException e) {
+                Log.e(TAG, "Camera is not available: " + e.getLocalizedMessage());
+            } catch (SecurityException e) {
+                Log.e(TAG, "No permission to open the camera: " + e.getLocalizedMessage());
+            } catch (InterruptedException e) {
+                e.printStackTrace();
+            }
+            openFinished();
+            return false;
+        }
+    }
+
+    @Override
+    protected boolean connectCamera(int width, int height) {
+
+        /* 1. We need to start the thread which receives camera callbacks and frames
+         * 2. We need to open the camera; the capture session is started once it is open
+         */
+        Log.d(TAG, "Connecting to camera");
+        startBackgroundThread();
+        if (!initializeCamera(width, height)) {
+            stopBackgroundThread();
+            return false;
+        }
+        return true;
+    }
+
+    @Override
+    protected void disconnectCamera() {
+        /* 1. Close the camera, waiting for it to finish opening if needed
+         * 2. Stop the background thread, which waits for the frame in flight,
+         *    and only then close the image reader and release the frame Mats
+         */
+        Log.d(TAG, "Disconnecting from camera");
+        try {
+            mCameraOpenCloseLock.acquire();
+            try {
+                releaseCamera();
+            } finally {
+                mCameraOpenCloseLock.release();
+            }
+        } catch (InterruptedException e) {
+            e.printStackTrace();
+        }
+        stopBackgroundThread();
+    }
+
+    /**
+     * Picks the camera for mCameraIndex and the largest YUV_420_888 output size which fits
+     * the surface and setMaxFrameSize(). Called when mCameraLock is held.
+     */
+    private boolean selectCamera(int width, int height) throws CameraAccessException {
+        CameraManager manager = (CameraManager) getContext().getSystemService(Context.CAMERA_SERVICE);
+        String[] cameraIds = manager.getCameraIdList();
+        if (cameraIds.length == 0) {
+            Log.e(TAG, "No cameras found");
+            return false;
+        }
+
+        mCameraId = null;
+        if (mCameraIndex == CAMERA_ID_ANY) {
+            mCameraId = cameraIds[0];
+        } else if (mCameraIndex == CAMERA_ID_BACK || mCameraIndex == CAMERA_ID_FRONT) {
+            int facing = (mCameraIndex == CAMERA_ID_BACK) ? CameraCharacteristics.LENS_FACING_BACK
+                                                          : CameraCharacteristics.LENS_FACING_FRONT;
+            for (String cameraId : cameraIds) {
+                Integer lensFacing = manager.getCameraCharacteristics(cameraId).get(CameraCharacteristics.LENS_FACING);
+                if (lensFacing != null && lensFacing == facing) {
+                    mCameraId = cameraId;
+                    break;
+                }
+            }
+        } else if (mCameraIndex >= 0 && mCameraIndex < cameraIds.length) {
+            mCameraId = cameraIds[mCameraIndex];
+        }
+
+        if (mCameraId == null) {
+            Log.e(TAG, "Camera " + mCameraIndex + " not found!");
+            return false;
+        }
+
+        CameraCharacteristics characteristics = manager.getCameraCharacteristics(mCameraId);
+        StreamConfigurationMap map = characteristics.get(CameraCharacteristics.SCALER_STREAM_CONFIGURATION_MAP);
+        android.util.Size[] sizes = map.getOutputSizes(ImageFormat.YUV_420_888);
+        Size frameSize = calculateCameraFrameSize(Arrays.asList(sizes), new JavaCamera2SizeAccessor(), width, height);
+        if (frameSize.width <= 0 || frameSize.height <= 0) {
+            Log.e(TAG, "No preview size fits " + width + "x" + height);
+            return false;
+        }
+
+        mPreviewSize = new android.util.Size((int)frameSize.width, (int)frameSize.height);
+        return true;
+    }
+
+    private void createCameraPreviewSession() {
+        synchronized (mCameraLock) {
+            if (mCameraDevice == null || mImageReader == null)
+                return;
+
+            try {
+                final CaptureRequest.Builder builder = mCameraDevice.createCaptureRequest(CameraDevice.TEMPLATE_PREVIEW);
+                Surface surface = mImageReader.getSurface();
+                builder.addTarget(surface);
+
+                mCameraDevice.createCaptureSession(Arrays.asList(surface), new CameraCaptureSession.StateCallback() {
+                    @Override
+                    public void onConfigured(CameraCaptureSession session) {
+                        synchronized (mCameraLock) {
+                            if (mCameraDevice == null) {
+                                session.close();
+                                return;
+                            }
+                            mCaptureSession = session;
+                            try {
+                                builder.set(CaptureRequest.CONTROL_AF_MODE, CaptureRequest.CONTROL_AF_MODE_CONTINUOUS_VIDEO);
+                                mCaptureSession.setRepeatingRequest(builder.build(), null, mBackgroundHandler);
+                                Log.d(TAG, "Camera preview session started");
+                            } catch (CameraAccessException e) {
+                                Log.e(TAG, "Failed to start the preview: " + e.getLocalizedMessage());
+                            }
+                        }
+                    }
+
+                    @Override
+                    public void onConfigureFailed(CameraCaptureSession session) {
+                        Log.e(TAG, "Failed to configure the capture session");
+                    }
+                }, mBackgroundHandler);
+            } catch (CameraAccessException e) {
+                Log.e(TAG, "Failed to create the capture session: " + e.getLocalizedMessage());
+            }
+        }
+    }
+
+    private void releaseCamera() {
+        synchronized (mCameraLock) {
+            if (mCaptureSession != null) {
+                mCaptureSession.close();
+                mCaptureSession = null;
+            }
+            if (mCameraDevice != null) {
+                mCameraDevice.close();
+                mCameraDevice = null;
+            }
+        }
+    }
+
+    private void startBackgroundThread() {
+        stopBackgroundThread();
+        mBackgroundThread = new HandlerThread("OpenCVCameraBackground");
+        mBackgroundThread.start();
+        mBackgroundHandler = new Handler(mBackgroundThread.getLooper());
+    }
+
+    /**
+     * Waits for a frame being processed to finish, then closes the image reader and
+     * releases the frame Mats.
+     */
+    private void stopBackgroundThread() {
+        if (mBackgroundThread != null) {
+            mBackgroundThread.quitSafely();
+            try {
+                mBackgroundThread.join();
+            } catch (InterruptedException e) {
+                e.printStackTrace();
+            } finally {
+                mBackgroundThread = null;
+                mBackgroundHandler = null;
+            }
+        }
+
+        synchronized (mCameraLock) {
+            if (mImageReader != null) {
+                mImageReader.close();
+                mImageReader = null;
+            }
+        }
+        if (mCameraFrame != null) {
+            mCameraFrame.release();
+            mCameraFrame = null;
+        }
+    }
+
+    /**
+     * Lets disconnectCamera() proceed once a pending openCamera() has completed.
+     * Called when mCameraLock is held.
+     */
+    private void openFinished() {
+        if (mCameraOpening) {
+            mCameraOpening = false;
+            mCameraOpenCloseLock.release();
+        }
+    }
+
+    private final CameraDevice.StateCallback mStateCallback = new CameraDevice.StateCallback() {
+        @Override
+        public void onOpened(CameraDevice cameraDevice) {
+            synchronized (mCameraLock) {
+                mCameraDevice = cameraDevice;
+                openFinished();
+            }
+            createCameraPreviewSession();
+        }
+
+        @Override
+        public void onDisconnected(CameraDevice cameraDevice) {
+            Log.d(TAG, "Camera disconnected");
+            cameraDevice.close();
+            synchronized (mCameraLock) {
+                mCameraDevice = null;
+                openFinished();
+            }
+        }
+
+        @Override
+        public void onError(CameraDevice cameraDevice, int error) {
+            Log.e(TAG, "Camera error: " + error);
+            cameraDevice.close();
+            synchronized (mCameraLock) {
+                mCameraDevice = null;
+                openFinished();
+            }
+        }
+    };
+
+    private final ImageReader.OnImageAvailableListener mOnImageAvailableListener = new ImageReader.OnImageAvailableListener() {
+        @Override
+        public void onImageAvailable(ImageReader reader) {
+            /* Skip frames which queued up while the previous one was processed */
+            Image image = reader.acquireLatestImage();
+            if (image == null)
+                return;
+
+            try {
+                mCameraFrame.setImage(image);
+                deliverAndDrawFrame(mCameraFrame);
+            } finally {
+                mCameraFrame.setImage(null);
+                image.close();
+            }
+        }
+    };
+
+    /**
+     * Frame backed by the current YUV_420_888 Image. The Y plane is copied into the luma rows
+     * of an NV21 Mat on the first gray() call, and the chroma planes into its VU rows only on
+     * the first rgba() call, each with a single put() from a reused array.
+     */
+    private class JavaCamera2Frame implements CvCameraViewFrame {
+        @Override
+        public Mat gray() {
+            if (!mGrayValid) {
+                copyLuma();
+                mYuvFrameData.put(0, 0, mLumaBytes);
+                mGrayValid = true;
+            }
+            return mGray;
+        }
+
+        @Override
+        public Mat rgba() {
+            if (!mRgbaValid) {
+                gray();
+                if (mGrayOnly) {
+                    Imgproc.cvtColor(mGray, mRgba, Imgproc.COLOR_GRAY2RGBA, 4);
+                } else {
+                    copyChroma();
+                    mYuvFrameData.put(mHeight, 0, mChromaBytes);
+                    Imgproc.cvtColor(mYuvFrameData, mRgba, Imgproc.COLOR_YUV2RGBA_NV21, 4);
+                }
+                mRgbaValid = true;
+            }
+            return mRgba;
+        }
+
+        /**
+         * @param grayOnly - if true, the chroma planes are never read and no space is
+         *                   allocated for them; rgba() is then derived from the gray frame
+         */
+        public JavaCamera2Frame(int width, int height, boolean grayOnly) {
+            super();
+            mWidth = width;
+            mHeight = height;
+            mGrayOnly = grayOnly;
+            mLumaBytes = new byte[width * height];
+            if (grayOnly) {
+                mYuvFrameData = new Mat(height, width, CvType.CV_8UC1);
+                mGray = mYuvFrameData;
+            } else {
+                mChromaBytes = new byte[width * height / 2];
+                mRowBytes = new byte[width * 2];
+                mYuvFrameData = new Mat(height + height / 2, width, CvType.CV_8UC1);
+                mGray = mYuvFrameData.submat(0, height, 0, width);
+            }
+            mRgba = new Mat();
+        }
+
+        public void setImage(Image image) {
+            mImage = image;
+            mGrayValid = false;
+            mRgbaValid = false;
+        }
+
+        public void release() {
+            if (mGray != mYuvFrameData)
+                mGray.release();
+            mYuvFrameData.release();
+            mRgba.release();
+        }
+
+        /* Copies the Y plane into mLumaBytes, dropping any row padding */
+        private void copyLuma() {
+            Image.Plane plane = mImage.getPlanes()[0];
+            ByteBuffer buffer = plane.getBuffer();
+            int rowStride = plane.getRowStride();
+            buffer.rewind();
+            if (rowStride == mWidth) {
+                buffer.get(mLumaBytes);
+            } else {
+                for (int row = 0; row < mHeight; row++) {
+                    buffer.position(row * rowStride);
+                    buffer.get(mLumaBytes, row * mWidth, mWidth);
+                }
+            }
+        }
+
+        /* Interleaves the U and V planes into mChromaBytes in NV21 (VU) order */
+        private void copyChroma() {
+            Image.Plane[] planes = mImage.getPlanes();
+            ByteBuffer uBuffer = planes[1].getBuffer();
+            ByteBuffer vBuffer = planes[2].getBuffer();
+            int rowStride = planes[1].getRowStride();
+            int pixelStride = planes[1].getPixelStride();
+            int chromaWidth = mWidth / 2;
+            int rowLength = (chromaWidth - 1) * pixelStride + 1;
+            int offset = 0;
+
+            for (int row = 0; row < mHeight / 2; row++) {
+                uBuffer.position(row * rowStride);
+                uBuffer.get(mRowBytes, 0, rowLength);
+                vBuffer.position(row * rowStride);
+                vBuffer.get(mRowBytes, mWidth, rowLength);
+                for (int col = 0; col < chromaWidth; col++) {
+                    mChromaBytes[offset++] = mRowBytes[mWidth + col * pixelStride];
+                    mChromaBytes[offset++] = mRowBytes[col * pixelStride];
+                }
+            }
+        }
+
+        private Image mImage;
+        private boolean mGrayOnly;
+        private boolean mGrayValid;
+        private boolean mRgbaValid;
+        private byte[] mLumaBytes;
+        private byte[] mChromaBytes;
+        private byte[] mRowBytes;
+        private Mat mGray;
+        private Mat mYuvFrameData;
+        private Mat mRgba;
+        private int mWidth;
+        private int mHeight;
+    };
+}
@@ -179,9 +179,11 @@ public class JavaCameraView extends CameraBridgeViewBase implements PreviewCallb
                     mCamera.addCallbackBuffer(mBuffer);
                     mCamera.setPreviewCallbackWithBuffer(this);
 
+                    /* In GRAY mode only the luma rows are kept; put() stops at the end of the Mat */
+                    int chainRows = (mPreviewFormat == GRAY) ? mFrameHeight : mFrameHeight + (mFrameHeight/2);
                     mFrameChain = new Mat[2];
-                    mFrameChain[0] = new Mat(mFrameHeight + (mFrameHeight/2), mFrameWidth, CvType.CV_8UC1);
-                    mFrameChain[1] = new Mat(mFrameHeight + (mFrameHeight/2), mFrameWidth, CvType.CV_8UC1);
+                    mFrameChain[0] = new Mat(chainRows, mFrameWidth, CvType.CV_8UC1);
+                    mFrameChain[1] = new Mat(chainRows, mFrameWidth, CvType.CV_8UC1);
 
                     AllocateCache();
 
@@ -296,12 +298,17 @@ public class JavaCameraView extends CameraBridgeViewBase implements PreviewCallb
     private class JavaCameraFrame implements CvCameraViewFrame {
         @Override
         public Mat gray() {
+            if (mGrayOnly)
+                return mYuvFrameData;
             return mYuvFrameData.submat(0, mHeight, 0, mWidth);
         }
 
         @Override
         public Mat rgba() {
-            Imgproc.cvtColor(mYuvFrameData, mRgba, Imgproc.COLOR_YUV2RGBA_NV21, 4);
+            if (mGrayOnly)
+                Imgproc.cvtColor(mYuvFrameData, mRgba, Imgproc.COLOR_GRAY2RGBA, 4);
+            else
+                Imgproc.cvtColor(mYuvFrameData, mRgba, Imgproc.COLOR_YUV2RGBA_NV21, 4);
             return mRgba;
         }
 
@@ -310,6 +317,7 @@ public class JavaCameraView extends CameraBridgeViewBase implements PreviewCallb
             mWidth = width;
             mHeight = height;
             mYuvFrameData = Yuv420sp;
+            mGrayOnly = (Yuv420sp.rows() == height);
             mRgba = new Mat();
         }
 
@@ -318,6 +326,7 @@ public class JavaCameraView extends CameraBridgeViewBase implements PreviewCallb
         }
 
         private Mat mYuvFrameData;
+        private boolean mGrayOnly;
         private Mat mRgba;
         private int mWidth;
         private int mHeight;
@@ -2157,7 +2157,11 @@ public class Core {
 
     //javadoc: minMaxLoc(src, mask)
     public static MinMaxLocResult minMaxLoc(Mat src, Mat mask) {
-        MinMaxLocResult res = new MinMaxLocResult();
+        return minMaxLoc(src, mask, new MinMaxLocResult());
+    }
+
+    //javadoc: minMaxLoc(src, mask), storing into an existing result
+    public static MinMaxLocResult minMaxLoc(Mat src, Mat mask, MinMaxLocResult res) {
         long maskNativeObj=0;
         if (mask != null) {
             maskNativeObj=mask.nativeObj;
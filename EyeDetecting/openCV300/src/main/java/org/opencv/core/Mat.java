@@ -6,11 +6,21 @@ public class Mat {
 
     public final long nativeObj;
 
+    // set once the native header has been deleted ahead of finalize(), see delete()
+    private volatile boolean deleted;
+
+    // set while MatTracker is enabled, see MatTracker.track()
+    MatTracker.Record trackerRecord;
+
+    // bumped whenever the header may be pointed at other data, see MatBuffer.isValid()
+    private int generation;
+
     public Mat(long addr)
     {
         if (addr == 0)
             throw new java.lang.UnsupportedOperationException("Native object address is NULL");
         nativeObj = addr;
+        created();
     }
 
     //
@@ -23,6 +33,8 @@ public class Mat {
 
         nativeObj = n_Mat();
 
+        created();
+
         return;
     }
 
@@ -36,6 +48,8 @@ public class Mat {
 
         nativeObj = n_Mat(rows, cols, type);
 
+        created();
+
         return;
     }
 
@@ -49,6 +63,8 @@ public class Mat {
 
         nativeObj = n_Mat(size.width, size.height, type);
 
+        created();
+
         return;
     }
 
@@ -62,6 +78,8 @@ public class Mat {
 
         nativeObj = n_Mat(rows, cols, type, s.val[0], s.val[1], s.val[2], s.val[3]);
 
+        created();
+
         return;
     }
 
@@ -75,6 +93,8 @@ public class Mat {
 
         nativeObj = n_Mat(size.width, size.height, type, s.val[0], s.val[1], s.val[2], s.val[3]);
 
+        created();
+
         return;
     }
 
@@ -88,6 +108,8 @@ public class Mat {
 
         nativeObj = n_Mat(m.nativeObj, rowRange.start, rowRange.end, colRange.start, colRange.end);
 
+        created();
+
         return;
     }
 
@@ -97,6 +119,8 @@ public class Mat {
 
         nativeObj = n_Mat(m.nativeObj, rowRange.start, rowRange.end);
 
+        created();
+
         return;
     }
 
@@ -110,6 +134,8 @@ public class Mat {
 
         nativeObj = n_Mat(m.nativeObj, roi.y, roi.y + roi.height, roi.x, roi.x + roi.width);
 
+        created();
+
         return;
     }
 
@@ -135,6 +161,7 @@ public class Mat {
     {
 
         n_assignTo(nativeObj, m.nativeObj, type);
+        m.generation++;
 
         return;
     }
@@ -144,6 +171,7 @@ public class Mat {
     {
 
         n_assignTo(nativeObj, m.nativeObj);
+        m.generation++;
 
         return;
     }
@@ -338,6 +366,7 @@ public class Mat {
     {
 
         n_create(nativeObj, rows, cols, type);
+        generation++;
 
         return;
     }
@@ -351,6 +380,7 @@ public class Mat {
     {
 
         n_create(nativeObj, size.width, size.height, type);
+        generation++;
 
         return;
     }
@@ -640,6 +670,7 @@ public class Mat {
     {
 
         n_release(nativeObj);
+        generation++;
 
         return;
     }
@@ -906,9 +937,48 @@ public class Mat {
         return retVal;
     }
 
+    // Called by every constructor once nativeObj is set
+    private void created() {
+        MatScope.track(this);
+        if (MatTracker.isEnabled())
+            MatTracker.track(this);
+    }
+
+    // Deletes the native header (and its reference to the data) right away, as finalize() would.
+    // Used by MatScope; the Mat must not be used afterwards.
+    void delete() {
+        if (!deleted) {
+            deleted = true;
+            if (trackerRecord != null)
+                MatTracker.untrack(this, false);
+            n_delete(nativeObj);
+        }
+    }
+
+    boolean isDeleted() {
+        return deleted;
+    }
+
+    // Counts release(), create(), assignTo() into this Mat and in-place ROI moves, so that a
+    // MatBuffer notices them even when the allocator hands back the same data address.
+    int generation() {
+        return generation;
+    }
+
+    // Moves the edges of this header within its parent data like adjustROI(), but drops the
+    // native copy of the result instead of wrapping it in a new Mat. Used by MatView.
+    void adjustROIInPlace(int dtop, int dbottom, int dleft, int dright) {
+        n_delete(n_adjustROI(nativeObj, dtop, dbottom, dleft, dright));
+        generation++;
+    }
+
     @Override
     protected void finalize() throws Throwable {
-        n_delete(nativeObj);
+        if (!deleted) {
+            if (trackerRecord != null)
+                MatTracker.untrack(this, true);
+            n_delete(nativeObj);
+        }
         super.finalize();
     }
 
@@ -0,0 +1,153 @@
+package org.opencv.core;
+
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+
+/**
+ * A packed Java copy of the pixels of a CV_8U, CV_8S or CV_32F Mat, exposed as a ByteBuffer or
+ * FloatBuffer for per-pixel Java loops and for handing pixels to other consumers.
+ * <p>
+ * This is not a view of the native data: the pixels are copied with a single get() when the
+ * buffer is created or reloaded, and back with a single put() on writeBack(), instead of one JNI
+ * call with its checks per pixel or row. Changes on either side are not seen by the other until
+ * then. A submatrix is copied row by row without the step of its parent, so element (row, col)
+ * always starts at index(row, col). The arrays are reused by reload() when they are large enough.
+ * <p>
+ * The buffer is only valid for the Mat data it was read from: once the Mat is released,
+ * re-created, re-assigned or deleted by a MatScope, isValid() returns false and the accessors
+ * throw IllegalStateException until reload() is called.
+ */
+public final class MatBuffer {
+
+    private final Mat mat;
+    private byte[] bytes;
+    private float[] floats;
+    private ByteBuffer byteBuffer;
+    private FloatBuffer floatBuffer;
+
+    // what the buffer was read from
+    private int generation;
+    private long dataAddr;
+    private int rows;
+    private int cols;
+    private int type;
+
+    public MatBuffer(Mat mat) {
+        this.mat = mat;
+        reload();
+    }
+
+    /**
+     * Copies the current pixels of the Mat into the buffer, e.g. after the Mat was re-created or
+     * written to natively.
+     */
+    public void reload() {
+        if (mat.isDeleted())
+            throw new IllegalStateException("Mat was deleted");
+        generation = mat.generation();
+        rows = mat.rows();
+        cols = mat.cols();
+        type = mat.type();
+        dataAddr = mat.dataAddr();
+        int channels = CvType.channels(type);
+        int length = rows * cols * channels;
+
+        switch (CvType.depth(type)) {
+        case CvType.CV_8U:
+        case CvType.CV_8S:
+            // get() and put() need an array length which is a multiple of the channels
+            if (bytes == null || bytes.length < length || bytes.length % channels != 0) {
+                bytes = new byte[length];
+                byteBuffer = ByteBuffer.wrap(bytes);
+            }
+            if (length > 0)
+                mat.get(0, 0, bytes);
+            byteBuffer.clear().limit(length);
+            break;
+        case CvType.CV_32F:
+            if (floats == null || floats.length < length || floats.length % channels != 0) {
+                floats = new float[length];
+                floatBuffer = FloatBuffer.wrap(floats);
+            }
+            if (length > 0)
+                mat.get(0, 0, floats);
+            floatBuffer.clear().limit(length);
+            break;
+        default:
+            throw new UnsupportedOperationException("Mat data type is not compatible: " + type);
+        }
+    }
+
+    /**
+     * Returns false once the Mat no longer holds the data the buffer was read from. The Mat's
+     * generation catches release() and create() from Java even if the new data has the same
+     * address, size and type; the address, size and type catch native functions which
+     * reallocate the Mat as an output.
+     */
+    public boolean isValid() {
+        return !mat.isDeleted() && mat.generation() == generation && mat.dataAddr() == dataAddr &&
+                mat.rows() == rows && mat.cols() == cols && mat.type() == type;
+    }
+
+    /**
+     * Returns the pixels of a CV_8U or CV_8S Mat, with position 0 and limit rows * cols *
+     * channels.
+     */
+    public ByteBuffer bytes() {
+        checkValid();
+        if (byteBuffer == null || CvType.depth(type) == CvType.CV_32F)
+            throw new UnsupportedOperationException("Mat is not CV_8U or CV_8S: " + CvType.typeToString(type));
+        return byteBuffer;
+    }
+
+    /**
+     * Returns the pixels of a CV_32F Mat, with position 0 and limit rows * cols * channels.
+     */
+    public FloatBuffer floats() {
+        checkValid();
+        if (floatBuffer == null || CvType.depth(type) != CvType.CV_32F)
+            throw new UnsupportedOperationException("Mat is not CV_32F: " + CvType.typeToString(type));
+        return floatBuffer;
+    }
+
+    public int rows() {
+        return rows;
+    }
+
+    public int cols() {
+        return cols;
+    }
+
+    public int channels() {
+        return CvType.channels(type);
+    }
+
+    public int type() {
+        return type;
+    }
+
+    /**
+     * Returns the buffer index of the first channel of element (row, col).
+     */
+    public int index(int row, int col) {
+        return (row * cols + col) * CvType.channels(type);
+    }
+
+    /**
+     * Copies the buffer back into the Mat.
+     */
+    public void writeBack() {
+        checkValid();
+        if (rows * cols == 0)
+            return;
+        if (CvType.depth(type) == CvType.CV_32F)
+            mat.put(0, 0, floats);
+        else
+            mat.put(0, 0, bytes);
+    }
+
+    private void checkValid() {
+        if (!isValid())
+            throw new IllegalStateException("Mat was released or re-created, reload() the buffer");
+    }
+}
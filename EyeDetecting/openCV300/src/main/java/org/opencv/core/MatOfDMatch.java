@@ -71,6 +71,40 @@ public class MatOfDMatch extends Mat {
         return a;
     }
 
+    /**
+     * Copies the matches into a caller-owned buffer as queryIdx, trainIdx, imgIdx, distance tuples, without allocating.
+     * @param buff - a buffer for at least total() matches, i.e. 4 values per match
+     * @return the number of matches
+     */
+    public int toArray(float[] buff) {
+        int num = checkVector(_channels, _depth);
+        if(num < 0)
+            throw new RuntimeException("Native Mat has unexpected type or size: " + toString());
+        if(buff.length < num * _channels || buff.length % _channels != 0)
+            throw new IllegalArgumentException("Buffer of " + buff.length + " values can not hold " + num + " elements of " + _channels);
+        // get() returns the number of bytes copied
+        if(num > 0 && get(0, 0, buff) != num * _channels * 4)
+            throw new CvException("Copied fewer than " + num + " elements from the native Mat");
+        return num;
+    }
+
+    /**
+     * Sets the matches from the first num entries of a buffer laid out as by toArray(float[]),
+     * without allocating on the Java side. With num == 0 the Mat is released.
+     */
+    public void fromArray(float[] buff, int num) {
+        if(num < 0 || buff.length < num * _channels || buff.length % _channels != 0)
+            throw new IllegalArgumentException("Buffer of " + buff.length + " values does not hold " + num + " elements of " + _channels);
+        if(num == 0) {
+            release();
+            return;
+        }
+        alloc(num);
+        // put() returns the number of bytes copied
+        if(put(0, 0, buff) != num * _channels * 4)
+            throw new CvException("Copied fewer than " + num + " elements to the native Mat");
+    }
+
     public void fromList(List<DMatch> ldm) {
         DMatch adm[] = ldm.toArray(new DMatch[0]);
         fromArray(adm);
@@ -59,6 +59,40 @@ public class MatOfFloat extends Mat {
         return a;
     }
 
+    /**
+     * Copies the floats into a caller-owned buffer, without allocating.
+     * @param buff - a buffer for at least total() floats
+     * @return the number of floats
+     */
+    public int toArray(float[] buff) {
+        int num = checkVector(_channels, _depth);
+        if(num < 0)
+            throw new RuntimeException("Native Mat has unexpected type or size: " + toString());
+        if(buff.length < num * _channels)
+            throw new IllegalArgumentException("Buffer of " + buff.length + " values can not hold " + num + " elements");
+        // get() returns the number of bytes copied
+        if(num > 0 && get(0, 0, buff) != num * _channels * 4)
+            throw new CvException("Copied fewer than " + num + " elements from the native Mat");
+        return num;
+    }
+
+    /**
+     * Sets the floats from the first num entries of a buffer, without allocating on the Java
+     * side. With num == 0 the Mat is released.
+     */
+    public void fromArray(float[] buff, int num) {
+        if(num < 0 || buff.length < num * _channels)
+            throw new IllegalArgumentException("Buffer of " + buff.length + " values does not hold " + num + " elements");
+        if(num == 0) {
+            release();
+            return;
+        }
+        alloc(num);
+        // put() returns the number of bytes copied
+        if(put(0, 0, buff) != num * _channels * 4)
+            throw new CvException("Copied fewer than " + num + " elements to the native Mat");
+    }
+
     public void fromList(List<Float> lb) {
         if(lb==null || lb.size()==0)
             return;
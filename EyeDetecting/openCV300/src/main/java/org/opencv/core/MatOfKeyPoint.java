@@ -74,6 +74,40 @@ public class MatOfKeyPoint extends Mat {
         return a;
     }
 
+    /**
+     * Copies the keypoints into a caller-owned buffer as x, y, size, angle, response, octave, class_id tuples, without allocating.
+     * @param buff - a buffer for at least total() keypoints, i.e. 7 values per keypoint
+     * @return the number of keypoints
+     */
+    public int toArray(float[] buff) {
+        int num = checkVector(_channels, _depth);
+        if(num < 0)
+            throw new RuntimeException("Native Mat has unexpected type or size: " + toString());
+        if(buff.length < num * _channels || buff.length % _channels != 0)
+            throw new IllegalArgumentException("Buffer of " + buff.length + " values can not hold " + num + " elements of " + _channels);
+        // get() returns the number of bytes copied
+        if(num > 0 && get(0, 0, buff) != num * _channels * 4)
+            throw new CvException("Copied fewer than " + num + " elements from the native Mat");
+        return num;
+    }
+
+    /**
+     * Sets the keypoints from the first num entries of a buffer laid out as by toArray(float[]),
+     * without allocating on the Java side. With num == 0 the Mat is released.
+     */
+    public void fromArray(float[] buff, int num) {
+        if(num < 0 || buff.length < num * _channels || buff.length % _channels != 0)
+            throw new IllegalArgumentException("Buffer of " + buff.length + " values does not hold " + num + " elements of " + _channels);
+        if(num == 0) {
+            release();
+            return;
+        }
+        alloc(num);
+        // put() returns the number of bytes copied
+        if(put(0, 0, buff) != num * _channels * 4)
+            throw new CvException("Copied fewer than " + num + " elements to the native Mat");
+    }
+
     public void fromList(List<KeyPoint> lkp) {
         KeyPoint akp[] = lkp.toArray(new KeyPoint[0]);
         fromArray(akp);
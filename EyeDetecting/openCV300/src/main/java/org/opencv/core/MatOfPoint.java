@@ -66,6 +66,40 @@ public class MatOfPoint extends Mat {
         return ap;
     }
 
+    /**
+     * Copies the points into a caller-owned buffer as x, y pairs, without allocating.
+     * @param buff - a buffer for at least total() points, i.e. 2 values per point
+     * @return the number of points
+     */
+    public int toArray(int[] buff) {
+        int num = checkVector(_channels, _depth);
+        if(num < 0)
+            throw new RuntimeException("Native Mat has unexpected type or size: " + toString());
+        if(buff.length < num * _channels || buff.length % _channels != 0)
+            throw new IllegalArgumentException("Buffer of " + buff.length + " values can not hold " + num + " elements of " + _channels);
+        // get() returns the number of bytes copied
+        if(num > 0 && get(0, 0, buff) != num * _channels * 4)
+            throw new CvException("Copied fewer than " + num + " elements from the native Mat");
+        return num;
+    }
+
+    /**
+     * Sets the points from the first num entries of a buffer laid out as by toArray(int[]),
+     * without allocating on the Java side. With num == 0 the Mat is released.
+     */
+    public void fromArray(int[] buff, int num) {
+        if(num < 0 || buff.length < num * _channels || buff.length % _channels != 0)
+            throw new IllegalArgumentException("Buffer of " + buff.length + " values does not hold " + num + " elements of " + _channels);
+        if(num == 0) {
+            release();
+            return;
+        }
+        alloc(num);
+        // put() returns the number of bytes copied
+        if(put(0, 0, buff) != num * _channels * 4)
+            throw new CvException("Copied fewer than " + num + " elements to the native Mat");
+    }
+
     public void fromList(List<Point> lp) {
         Point ap[] = lp.toArray(new Point[0]);
         fromArray(ap);
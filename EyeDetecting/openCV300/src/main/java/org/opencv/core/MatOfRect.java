@@ -69,6 +69,57 @@ public class MatOfRect extends Mat {
             a[i] = new Rect(buff[i*_channels], buff[i*_channels+1], buff[i*_channels+2], buff[i*_channels+3]);
         return a;
     }
+    /**
+     * Copies the rects into a caller-owned buffer as x, y, width, height quadruples, without allocating.
+     * @param buff - a buffer for at least total() rects, i.e. 4 values per rect
+     * @return the number of rects
+     */
+    public int toArray(int[] buff) {
+        int num = checkVector(_channels, _depth);
+        if(num < 0)
+            throw new RuntimeException("Native Mat has unexpected type or size: " + toString());
+        if(buff.length < num * _channels || buff.length % _channels != 0)
+            throw new IllegalArgumentException("Buffer of " + buff.length + " values can not hold " + num + " elements of " + _channels);
+        // get() returns the number of bytes copied
+        if(num > 0 && get(0, 0, buff) != num * _channels * 4)
+            throw new CvException("Copied fewer than " + num + " elements from the native Mat");
+        return num;
+    }
+
+    /**
+     * Sets the rects from the first num entries of a buffer laid out as by toArray(int[]),
+     * without allocating on the Java side. With num == 0 the Mat is released.
+     */
+    public void fromArray(int[] buff, int num) {
+        if(num < 0 || buff.length < num * _channels || buff.length % _channels != 0)
+            throw new IllegalArgumentException("Buffer of " + buff.length + " values does not hold " + num + " elements of " + _channels);
+        if(num == 0) {
+            release();
+            return;
+        }
+        alloc(num);
+        // put() returns the number of bytes copied
+        if(put(0, 0, buff) != num * _channels * 4)
+            throw new CvException("Copied fewer than " + num + " elements to the native Mat");
+    }
+
+    /**
+     * Copies the rects into a reusable RectBuffer, growing it if needed.
+     * @return the number of rects, also stored in buffer.count
+     */
+    public int toArray(RectBuffer buffer) {
+        int num = checkVector(_channels, _depth);
+        if(num < 0)
+            throw new RuntimeException("Native Mat has unexpected type or size: " + toString());
+        buffer.ensureCapacity(num);
+        buffer.count = toArray(buffer.data);
+        return buffer.count;
+    }
+
+    public void fromArray(RectBuffer buffer) {
+        fromArray(buffer.data, buffer.count);
+    }
+
     public void fromList(List<Rect> lr) {
         Rect ap[] = lr.toArray(new Rect[0]);
         fromArray(ap);
@@ -0,0 +1,169 @@
+package org.opencv.core;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+
+/**
+ * Frees the native memory of every Mat created within it when it is closed, instead of leaving
+ * it to finalize().
+ * <p>
+ * A scope is confined to the thread which opened it, and scopes nest: Mats are tracked by the
+ * innermost open scope of the constructing thread, and only that scope can be closed. On close,
+ * each tracked Mat is released and its native header deleted, so it must not be used afterwards;
+ * call {@link #keep(Mat)} for Mats which have to outlive the scope. Mats created on threads
+ * without an open scope are not affected.
+ * <pre>
+ * MatScope scope = MatScope.open();
+ * try {
+ *     ...
+ * } finally {
+ *     scope.close();
+ * }
+ * </pre>
+ * Byte counts are elemSize() * total() of each Mat when the scope is closed; a submat counts
+ * the bytes of its region although it shares them with its parent.
+ */
+public final class MatScope implements Closeable {
+
+    private static final ThreadLocal<MatScope> current = new ThreadLocal<MatScope>();
+
+    private final MatScope parent;
+    private final Thread owner;
+    private final ArrayList<Mat> mats = new ArrayList<Mat>();
+    private boolean closed;
+
+    private int trackedCount;
+    private int leakedCount;
+    private long leakedBytes;
+
+    private MatScope(MatScope parent) {
+        this.parent = parent;
+        this.owner = Thread.currentThread();
+    }
+
+    /**
+     * Opens a new scope on the calling thread, nested in the currently open one if any.
+     */
+    public static MatScope open() {
+        MatScope scope = new MatScope(current.get());
+        current.set(scope);
+        return scope;
+    }
+
+    /**
+     * Returns the innermost open scope of the calling thread, or null.
+     */
+    public static MatScope current() {
+        return current.get();
+    }
+
+    // called by every Mat constructor
+    static void track(Mat mat) {
+        MatScope scope = current.get();
+        if (scope != null) {
+            scope.mats.add(mat);
+            scope.trackedCount++;
+        }
+    }
+
+    /**
+     * Removes the Mat from this scope so that it survives close(). It is handed to the enclosing
+     * scope if there is one, and otherwise left to release() and finalize() as usual.
+     * @return the Mat itself
+     */
+    public <T extends Mat> T keep(T mat) {
+        checkOwner();
+        // search from the end: the Mat to keep is usually one of the last created
+        for (int i = mats.size() - 1; i >= 0; i--) {
+            if (mats.get(i) == mat) {
+                mats.remove(i);
+                if (parent != null && !parent.closed)
+                    parent.mats.add(mat);
+                break;
+            }
+        }
+        return mat;
+    }
+
+    /**
+     * Releases the data and deletes the headers of all Mats still tracked by this scope, and
+     * makes the enclosing scope current again. Closing a closed scope does nothing.
+     * @throws IllegalStateException if called from another thread, or while a nested scope is
+     *                               still open
+     */
+    @Override
+    public void close() {
+        if (closed)
+            return;
+        checkOwner();
+        if (current.get() != this)
+            throw new IllegalStateException("A nested MatScope is still open");
+
+        for (int i = 0; i < mats.size(); i++) {
+            Mat mat = mats.get(i);
+            if (mat.isDeleted())
+                continue;
+            long bytes = mat.elemSize() * mat.total();
+            if (bytes > 0) {
+                leakedCount++;
+                leakedBytes += bytes;
+            }
+            mat.release();
+            mat.delete();
+        }
+        mats.clear();
+        closed = true;
+
+        if (parent != null)
+            current.set(parent);
+        else
+            current.remove();
+    }
+
+    /**
+     * Returns the number of Mats created within this scope.
+     */
+    public int getTrackedCount() {
+        return trackedCount;
+    }
+
+    /**
+     * Returns the number of bytes currently held by the Mats tracked by this scope.
+     */
+    public long getLiveBytes() {
+        checkOwner();
+        long bytes = 0;
+        for (int i = 0; i < mats.size(); i++) {
+            Mat mat = mats.get(i);
+            if (!mat.isDeleted())
+                bytes += mat.elemSize() * mat.total();
+        }
+        return bytes;
+    }
+
+    /**
+     * Returns the number of Mats which still held data when the scope was closed, i.e. which
+     * were not released by their users and would otherwise have waited for finalize().
+     */
+    public int getLeakedCount() {
+        return leakedCount;
+    }
+
+    /**
+     * Returns the number of bytes held by the Mats counted by getLeakedCount().
+     */
+    public long getLeakedBytes() {
+        return leakedBytes;
+    }
+
+    @Override
+    public String toString() {
+        return "MatScope [ tracked=" + trackedCount + " leaked=" + leakedCount +
+                " leakedBytes=" + leakedBytes + (closed ? " closed" : "") + " ]";
+    }
+
+    private void checkOwner() {
+        if (Thread.currentThread() != owner)
+            throw new IllegalStateException("MatScope used outside of the thread which opened it");
+    }
+}
@@ -0,0 +1,250 @@
+package org.opencv.core;
+
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Opt-in accounting of the native memory held by Mat objects, to find Mats which are never
+ * released and only freed by finalize().
+ * <p>
+ * While enabled, every new Mat is counted. Every n-th Mat also records its construction site,
+ * i.e. the first frames of its stack trace outside of org.opencv.core, because stack traces are
+ * too expensive to take for every Mat. Mats which reach finalize() while still holding data are
+ * counted as leaks, in total and per site. Byte counts are elemSize() * total(), measured when
+ * a Mat is finalized or when the report is taken; a submat counts the bytes of its region
+ * although it shares them with its parent.
+ * <p>
+ * Mats created while tracking is disabled are never tracked. All methods are thread-safe.
+ */
+public final class MatTracker {
+
+    private static final int SITE_DEPTH = 3;
+    private static final int DUMP_SITES = 10;
+    private static final String UNSAMPLED = "(not sampled)";
+
+    private static volatile boolean enabled;
+    private static int sampleInterval;
+    private static int sampleCounter;
+
+    private static final HashSet<Record> live = new HashSet<Record>();
+    private static final HashMap<String, Site> sites = new HashMap<String, Site>();
+    private static long createdCount;
+    private static long leakedCount;
+    private static long leakedBytes;
+
+    private MatTracker() {
+    }
+
+    // Per-Mat tracking state, referenced from Mat.trackerRecord
+    static final class Record {
+        final WeakReference<Mat> mat;
+        final Site site;
+
+        Record(Mat mat, Site site) {
+            this.mat = new WeakReference<Mat>(mat);
+            this.site = site;
+        }
+    }
+
+    // Statistics of one construction site
+    static final class Site {
+        final String name;
+        long createdCount;
+        long liveCount;
+        long liveBytes;     // only valid while a report is being built
+        long leakedCount;
+        long leakedBytes;
+
+        Site(String name) {
+            this.name = name;
+        }
+    }
+
+    /**
+     * Starts tracking new Mats, clearing any earlier statistics.
+     * @param sampleInterval - record the construction site of every sampleInterval-th Mat;
+     *                         1 records all of them
+     */
+    public static synchronized void enable(int sampleInterval) {
+        if (sampleInterval < 1)
+            throw new IllegalArgumentException("sampleInterval must be at least 1");
+        clear();
+        MatTracker.sampleInterval = sampleInterval;
+        enabled = true;
+    }
+
+    /**
+     * Stops tracking and drops all statistics.
+     */
+    public static synchronized void disable() {
+        enabled = false;
+        clear();
+    }
+
+    public static boolean isEnabled() {
+        return enabled;
+    }
+
+    static synchronized void track(Mat mat) {
+        if (!enabled)
+            return;
+
+        Site site;
+        if (sampleCounter++ % sampleInterval == 0)
+            site = site(siteName());
+        else
+            site = site(UNSAMPLED);
+        site.createdCount++;
+        site.liveCount++;
+        createdCount++;
+
+        Record record = new Record(mat, site);
+        live.add(record);
+        mat.trackerRecord = record;
+    }
+
+    // Called before the native header is deleted, by finalize() or by MatScope
+    static void untrack(Mat mat, boolean finalized) {
+        Record record = mat.trackerRecord;
+        long bytes = finalized ? mat.elemSize() * mat.total() : 0;
+        synchronized (MatTracker.class) {
+            mat.trackerRecord = null;
+            if (!live.remove(record))
+                return; // dropped by disable() or enable()
+            record.site.liveCount--;
+            if (bytes > 0) {
+                record.site.leakedCount++;
+                record.site.leakedBytes += bytes;
+                leakedCount++;
+                leakedBytes += bytes;
+            }
+        }
+    }
+
+    /**
+     * Returns the number of tracked Mats whose native header has not been deleted yet.
+     */
+    public static synchronized int getLiveCount() {
+        return live.size();
+    }
+
+    /**
+     * Returns the bytes currently held by the tracked Mats which are still reachable.
+     */
+    public static synchronized long getLiveBytes() {
+        long bytes = 0;
+        for (Record record : live) {
+            Mat mat = record.mat.get();
+            if (mat != null)
+                bytes += mat.elemSize() * mat.total();
+        }
+        return bytes;
+    }
+
+    /**
+     * Returns the number of tracked Mats which reached finalize() without being released.
+     */
+    public static synchronized long getLeakedCount() {
+        return leakedCount;
+    }
+
+    /**
+     * Returns the bytes which were held by the Mats counted by getLeakedCount().
+     */
+    public static synchronized long getLeakedBytes() {
+        return leakedBytes;
+    }
+
+    /**
+     * Returns a one-line summary for periodic logging.
+     */
+    public static synchronized String summary() {
+        return "Mats created=" + createdCount + " live=" + live.size() + " liveBytes=" +
+                getLiveBytes() + " finalizedWithoutRelease=" + leakedCount + " (" + leakedBytes +
+                " bytes)";
+    }
+
+    /**
+     * Returns the summary followed by the construction sites with the most live and leaked
+     * bytes, one per line.
+     */
+    public static synchronized String dump() {
+        for (Site site : sites.values())
+            site.liveBytes = 0;
+        for (Record record : live) {
+            Mat mat = record.mat.get();
+            if (mat != null)
+                record.site.liveBytes += mat.elemSize() * mat.total();
+        }
+
+        List<Site> sorted = new ArrayList<Site>(sites.values());
+        Collections.sort(sorted, new Comparator<Site>() {
+            @Override
+            public int compare(Site a, Site b) {
+                long bytesA = a.liveBytes + a.leakedBytes;
+                long bytesB = b.liveBytes + b.leakedBytes;
+                return bytesA < bytesB ? 1 : (bytesA > bytesB ? -1 : 0);
+            }
+        });
+
+        StringBuilder sb = new StringBuilder(summary());
+        for (int i = 0; i < sorted.size() && i < DUMP_SITES; i++) {
+            Site site = sorted.get(i);
+            sb.append("\n  ").append(site.name)
+              .append(": created=").append(site.createdCount)
+              .append(" live=").append(site.liveCount)
+              .append(" liveBytes=").append(site.liveBytes)
+              .append(" finalizedWithoutRelease=").append(site.leakedCount)
+              .append(" (").append(site.leakedBytes).append(" bytes)");
+        }
+        return sb.toString();
+    }
+
+    private static void clear() {
+        for (Record record : live) {
+            Mat mat = record.mat.get();
+            if (mat != null)
+                mat.trackerRecord = null;
+        }
+        live.clear();
+        sites.clear();
+        sampleCounter = 0;
+        createdCount = 0;
+        leakedCount = 0;
+        leakedBytes = 0;
+    }
+
+    private static Site site(String name) {
+        Site site = sites.get(name);
+        if (site == null) {
+            site = new Site(name);
+            sites.put(name, site);
+        }
+        return site;
+    }
+
+    private static String siteName() {
+        StackTraceElement[] stack = new Throwable().getStackTrace();
+        StringBuilder sb = new StringBuilder();
+        int depth = 0;
+        for (StackTraceElement frame : stack) {
+            if (frame.getClassName().startsWith("org.opencv.core."))
+                continue;
+            if (depth > 0)
+                sb.append(" < ");
+            String className = frame.getClassName();
+            sb.append(className.substring(className.lastIndexOf('.') + 1))
+              .append('.').append(frame.getMethodName())
+              .append(':').append(frame.getLineNumber());
+            if (++depth == SITE_DEPTH)
+                break;
+        }
+        return sb.toString();
+    }
+}
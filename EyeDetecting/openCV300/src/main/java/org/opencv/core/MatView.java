@@ -0,0 +1,96 @@
+package org.opencv.core;
+
+/**
+ * A Mat which can be re-pointed at another region of a parent Mat, for ROIs which change every
+ * frame.
+ * <p>
+ * Each submat() call creates a native header and a Java Mat which waits for finalize(). A
+ * MatView keeps its header: set() copies the header of the parent into it with assignTo() and
+ * moves its edges in place to the region, so re-targeting allocates no Java objects. The result
+ * is the same as parent.submat(): it shares the data of the parent, so writes go through to the
+ * parent, and a zero-size region gives an empty Mat. A MatView can be passed wherever a Mat is
+ * accepted, including as the parent of another MatView.
+ * <p>
+ * The view keeps a reference to the data it was last set to, like any submat, until it is set
+ * again or released. A MatView created within a MatScope is deleted when the scope closes
+ * unless it is kept.
+ */
+public class MatView extends Mat {
+
+    private Mat parent;
+    private int x;
+    private int y;
+
+    /**
+     * Creates an empty view; call set() before use.
+     */
+    public MatView() {
+        super();
+    }
+
+    public MatView(Mat parent, Rect roi) {
+        super();
+        set(parent, roi);
+    }
+
+    /**
+     * Points the view at a region of the parent, like parent.submat(roi).
+     * @return the view itself
+     */
+    public MatView set(Mat parent, Rect roi) {
+        return set(parent, roi.y, roi.y + roi.height, roi.x, roi.x + roi.width);
+    }
+
+    /**
+     * Points the view at a region of the parent, like parent.submat(rowStart, rowEnd, colStart,
+     * colEnd).
+     * @return the view itself
+     */
+    public MatView set(Mat parent, int rowStart, int rowEnd, int colStart, int colEnd) {
+        int parentRows = parent.rows();
+        int parentCols = parent.cols();
+        if (rowStart < 0 || rowStart > rowEnd || rowEnd > parentRows ||
+                colStart < 0 || colStart > colEnd || colEnd > parentCols)
+            throw new java.lang.IllegalArgumentException("Region rows " + rowStart + ".." +
+                    rowEnd + ", cols " + colStart + ".." + colEnd + " is outside of the " +
+                    parentRows + "x" + parentCols + " parent");
+
+        parent.assignTo(this);
+        if (rowStart == rowEnd || colStart == colEnd)
+            release();
+        else if (rowStart != 0 || rowEnd != parentRows || colStart != 0 || colEnd != parentCols)
+            adjustROIInPlace(-rowStart, rowEnd - parentRows, -colStart, colEnd - parentCols);
+
+        this.parent = parent;
+        x = colStart;
+        y = rowStart;
+        return this;
+    }
+
+    /**
+     * Returns the Mat the view was last set to, or null.
+     */
+    public Mat parent() {
+        return parent;
+    }
+
+    /**
+     * Returns the column of the parent at which the view starts.
+     */
+    public int x() {
+        return x;
+    }
+
+    /**
+     * Returns the row of the parent at which the view starts.
+     */
+    public int y() {
+        return y;
+    }
+
+    @Override
+    public void release() {
+        super.release();
+        parent = null;
+    }
+}
@@ -0,0 +1,71 @@
+package org.opencv.core;
+
+/**
+ * A reusable list of rects stored as primitive ints, for reading and writing MatOfRect without
+ * allocating a Rect per element on every call.
+ * <p>
+ * The rects are kept as x, y, width, height quadruples in one array, which is the layout of
+ * MatOfRect's native data, so that they are copied with a single get() or put(). The array only
+ * grows, so a buffer which is reused across frames stops allocating once it has seen the
+ * largest count.
+ */
+public class RectBuffer {
+
+    // x, y, width and height of rect i are at data[4 * i] .. data[4 * i + 3]
+    public int[] data;
+    public int count;
+
+    public RectBuffer() {
+        this(16);
+    }
+
+    public RectBuffer(int capacity) {
+        data = new int[4 * Math.max(capacity, 1)];
+    }
+
+    /**
+     * Grows the array to hold at least the given number of rects, dropping its contents.
+     */
+    public void ensureCapacity(int capacity) {
+        if (data.length < 4 * capacity)
+            data = new int[4 * Math.max(capacity, 2 * data.length / 4)];
+    }
+
+    public int x(int i) {
+        return data[4 * i];
+    }
+
+    public int y(int i) {
+        return data[4 * i + 1];
+    }
+
+    public int width(int i) {
+        return data[4 * i + 2];
+    }
+
+    public int height(int i) {
+        return data[4 * i + 3];
+    }
+
+    /**
+     * Copies rect i into an existing Rect.
+     * @return the Rect passed in
+     */
+    public Rect get(int i, Rect r) {
+        r.x = data[4 * i];
+        r.y = data[4 * i + 1];
+        r.width = data[4 * i + 2];
+        r.height = data[4 * i + 3];
+        return r;
+    }
+
+    /**
+     * Sets rect i, which must be below the capacity; count is not changed.
+     */
+    public void set(int i, int x, int y, int width, int height) {
+        data[4 * i] = x;
+        data[4 * i + 1] = y;
+        data[4 * i + 2] = width;
+        data[4 * i + 3] = height;
+    }
+}
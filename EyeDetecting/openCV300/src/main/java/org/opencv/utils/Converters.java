@@ -14,6 +14,7 @@ import org.opencv.core.MatOfPoint3f;
 import org.opencv.core.Point;
 import org.opencv.core.Point3;
 import org.opencv.core.Rect;
+import org.opencv.core.RectBuffer;
 import org.opencv.core.DMatch;
 import org.opencv.core.KeyPoint;
 
@@ -733,4 +734,168 @@ public class Converters {
         }
         mats.clear();
     }
+
+    // Primitive array variants of the converters above. They take and fill caller-owned arrays,
+    // so nothing is boxed and no temporary array is allocated, and they write into a caller-owned
+    // Mat with create(), which only reallocates when the size or type changes. Multi-channel
+    // elements are interleaved, e.g. x, y pairs for points. Mat_to_array_* return the number of
+    // elements; the array must hold at least that many.
+
+    public static void array_float_to_Mat(float[] fs, int count, Mat res) {
+        checkInput(fs.length, count, 1);
+        if (toEmptyMat(count, res))
+            return;
+        res.create(count, 1, CvType.CV_32FC1);
+        res.put(0, 0, fs);
+    }
+
+    public static int Mat_to_array_float(Mat m, float[] fs) {
+        int count = checkOutput(m, CvType.CV_32FC1, fs.length, 1);
+        if (count > 0)
+            m.get(0, 0, fs);
+        return count;
+    }
+
+    public static void array_int_to_Mat(int[] is, int count, Mat res) {
+        checkInput(is.length, count, 1);
+        if (toEmptyMat(count, res))
+            return;
+        res.create(count, 1, CvType.CV_32SC1);
+        res.put(0, 0, is);
+    }
+
+    public static int Mat_to_array_int(Mat m, int[] is) {
+        int count = checkOutput(m, CvType.CV_32SC1, is.length, 1);
+        if (count > 0)
+            m.get(0, 0, is);
+        return count;
+    }
+
+    public static void array_double_to_Mat(double[] ds, int count, Mat res) {
+        checkInput(ds.length, count, 1);
+        if (toEmptyMat(count, res))
+            return;
+        res.create(count, 1, CvType.CV_64FC1);
+        res.put(0, 0, ds);
+    }
+
+    public static int Mat_to_array_double(Mat m, double[] ds) {
+        int count = checkOutput(m, CvType.CV_64FC1, ds.length, 1);
+        if (count > 0)
+            m.get(0, 0, ds);
+        return count;
+    }
+
+    public static void array_uchar_to_Mat(byte[] bs, int count, Mat res) {
+        checkInput(bs.length, count, 1);
+        if (toEmptyMat(count, res))
+            return;
+        res.create(count, 1, CvType.CV_8UC1);
+        res.put(0, 0, bs);
+    }
+
+    public static int Mat_to_array_uchar(Mat m, byte[] bs) {
+        int count = checkOutput(m, CvType.CV_8UC1, bs.length, 1);
+        if (count > 0)
+            m.get(0, 0, bs);
+        return count;
+    }
+
+    // points as x, y pairs, e.g. contours
+    public static void array_Point_to_Mat(int[] xy, int count, Mat res) {
+        checkInput(xy.length, count, 2);
+        if (toEmptyMat(count, res))
+            return;
+        res.create(count, 1, CvType.CV_32SC2);
+        res.put(0, 0, xy);
+    }
+
+    public static int Mat_to_array_Point(Mat m, int[] xy) {
+        int count = checkOutput(m, CvType.CV_32SC2, xy.length, 2);
+        if (count > 0)
+            m.get(0, 0, xy);
+        return count;
+    }
+
+    public static void array_Point2f_to_Mat(float[] xy, int count, Mat res) {
+        checkInput(xy.length, count, 2);
+        if (toEmptyMat(count, res))
+            return;
+        res.create(count, 1, CvType.CV_32FC2);
+        res.put(0, 0, xy);
+    }
+
+    public static int Mat_to_array_Point2f(Mat m, float[] xy) {
+        int count = checkOutput(m, CvType.CV_32FC2, xy.length, 2);
+        if (count > 0)
+            m.get(0, 0, xy);
+        return count;
+    }
+
+    public static void RectBuffer_to_Mat(RectBuffer rs, Mat res) {
+        checkInput(rs.data.length, rs.count, 4);
+        if (toEmptyMat(rs.count, res))
+            return;
+        res.create(rs.count, 1, CvType.CV_32SC4);
+        res.put(0, 0, rs.data);
+    }
+
+    // grows the buffer as needed and sets its count
+    public static void Mat_to_RectBuffer(Mat m, RectBuffer rs) {
+        int count = checkOutputType(m, CvType.CV_32SC4);
+        rs.ensureCapacity(count);
+        rs.count = count;
+        if (count > 0)
+            m.get(0, 0, rs.data);
+    }
+
+    // keypoints as x, y, size, angle, response, octave, class_id tuples
+    public static void array_KeyPoint_to_Mat(float[] kps, int count, Mat res) {
+        checkInput(kps.length, count, 7);
+        if (toEmptyMat(count, res))
+            return;
+        res.create(count, 1, CvType.CV_32FC(7));
+        res.put(0, 0, kps);
+    }
+
+    public static int Mat_to_array_KeyPoint(Mat m, float[] kps) {
+        int count = checkOutput(m, CvType.CV_32FC(7), kps.length, 7);
+        if (count > 0)
+            m.get(0, 0, kps);
+        return count;
+    }
+
+    private static void checkInput(int length, int count, int channels) {
+        // put() copies the whole array, clipped to the Mat, so it must be a multiple of channels
+        if (count < 0 || length < count * channels || length % channels != 0)
+            throw new java.lang.IllegalArgumentException(
+                    "Array of " + length + " values does not hold " + count + " elements of " + channels);
+    }
+
+    private static boolean toEmptyMat(int count, Mat res) {
+        if (count == 0) {
+            res.release();
+            return true;
+        }
+        return false;
+    }
+
+    private static int checkOutput(Mat m, int type, int length, int channels) {
+        int count = checkOutputType(m, type);
+        if (length < count * channels || length % channels != 0)
+            throw new java.lang.IllegalArgumentException(
+                    "Array of " + length + " values can not hold " + count + " elements of " + channels);
+        return count;
+    }
+
+    // returns the element count of a Mat which the converters can read
+    private static int checkOutputType(Mat m, int type) {
+        if (type != m.type() || m.cols() != 1) {
+            if (m.empty())
+                return 0;
+            throw new java.lang.IllegalArgumentException(
+                    CvType.typeToString(type) + " != m.type() ||  m.cols()!=1\n" + m);
+        }
+        return m.rows();
+    }
 }
@@ -0,0 +1,145 @@
+package org.opencv.utils;
+
+/**
+ * Integral images of 8-bit single-channel images (e.g. the luma plane of a camera frame) in
+ * plain Java, for detection code which runs on the JVM side without calling Imgproc.integral().
+ * <p>
+ * The results have the layout of Imgproc.integral3(): (height + 1) x (width + 1) elements, row
+ * by row, with a zero first row and column, so that
+ * <ul>
+ * <li>sum(X, Y) is the sum of the pixels (x, y) with x &lt; X and y &lt; Y,</li>
+ * <li>sqsum(X, Y) is the sum of their squares, and</li>
+ * <li>tilted(X, Y) is the sum of the pixels with y &lt; Y and |x - X + 1| &lt;= Y - y - 1, i.e.
+ * the 45 degree rotated rectangle ending at pixel (X - 1, Y - 1).</li>
+ * </ul>
+ * Pixels are unsigned. Every row is computed as a running sum, which is inherently sequential,
+ * followed by a separate loop adding the previous row; that loop has no dependencies between
+ * its iterations, so the JIT can unroll and vectorize it. The destination and scratch arrays are
+ * passed in so that they can be reused for every frame.
+ */
+public final class IntegralImage {
+
+    private IntegralImage() {
+    }
+
+    /**
+     * Computes the sum integral.
+     * @param src - pixels, row by row
+     * @param srcStride - distance between the starts of two rows of src, at least width
+     * @param sum - destination of at least (width + 1) * (height + 1) elements
+     */
+    public static void sum(byte[] src, int srcStride, int width, int height, int[] sum) {
+        checkArgs(src, srcStride, width, height, sum.length);
+        int stride = width + 1;
+        for (int x = 0; x < stride; x++)
+            sum[x] = 0;
+        for (int y = 0; y < height; y++) {
+            int s = y * srcStride;
+            int d = (y + 1) * stride;
+            int rowSum = 0;
+            sum[d] = 0;
+            for (int x = 0; x < width; x++) {
+                rowSum += src[s + x] & 0xff;
+                sum[d + x + 1] = rowSum;
+            }
+            int above = d - stride;
+            for (int x = 1; x < stride; x++)
+                sum[d + x] += sum[above + x];
+        }
+    }
+
+    /**
+     * Computes the squared sum integral; see {@link #sum}.
+     */
+    public static void sqsum(byte[] src, int srcStride, int width, int height, long[] sqsum) {
+        checkArgs(src, srcStride, width, height, sqsum.length);
+        int stride = width + 1;
+        for (int x = 0; x < stride; x++)
+            sqsum[x] = 0;
+        for (int y = 0; y < height; y++) {
+            int s = y * srcStride;
+            int d = (y + 1) * stride;
+            long rowSum = 0;
+            sqsum[d] = 0;
+            for (int x = 0; x < width; x++) {
+                int v = src[s + x] & 0xff;
+                rowSum += v * v;
+                sqsum[d + x + 1] = rowSum;
+            }
+            int above = d - stride;
+            for (int x = 1; x < stride; x++)
+                sqsum[d + x] += sqsum[above + x];
+        }
+    }
+
+    /**
+     * Computes the tilted integral from the sum integral computed by {@link #sum}.
+     * <p>
+     * tilted(X, Y) is the difference of two sums over the rows above Y: of the pixels on or left
+     * of the anti-diagonal through (X - 1, Y - 1), and of the pixels left of the diagonal through
+     * it. Each follows from the same sum one row up and one column over, plus a row prefix sum
+     * taken from the sum integral; the two rows are kept in scratch.
+     * @param sum - sum integral of the image
+     * @param tilted - destination of at least (width + 1) * (height + 1) elements
+     * @param scratch - at least 2 * (width + 1) elements, overwritten
+     */
+    public static void tilted(int[] sum, int width, int height, int[] tilted, int[] scratch) {
+        int stride = width + 1;
+        if (width < 0 || height < 0 || sum.length < stride * (height + 1) ||
+                tilted.length < stride * (height + 1) || scratch.length < 2 * stride)
+            throw new java.lang.IllegalArgumentException("Array too small for a " + width + "x" + height + " integral");
+        // anti-diagonal (x + y <= X + Y - 2) sums of the last row in the first row of scratch,
+        // and diagonal (x - y < X - Y) sums in the second, starting at diag
+        int diag = stride;
+        for (int x = 0; x < 2 * stride; x++)
+            scratch[x] = 0;
+        for (int x = 0; x < stride; x++)
+            tilted[x] = 0;
+        for (int y = 1; y <= height; y++) {
+            int d = y * stride;
+            int above = d - stride;
+            // the prefix sum of pixel row y - 1 up to column x is sum(x, y) - sum(x, y - 1);
+            // the anti-diagonal sum of column x reads column x + 1 of the last row
+            for (int x = 0; x < width; x++)
+                scratch[x] = scratch[x + 1] + sum[d + x] - sum[above + x];
+            scratch[width] = sum[d + width];
+            // the diagonal sum of column x reads column x - 1 of the last row, so go right to left
+            for (int x = width; x > 0; x--)
+                scratch[diag + x] = scratch[diag + x - 1] + sum[d + x - 1] - sum[above + x - 1];
+            scratch[diag] = 0;
+            for (int x = 0; x < stride; x++)
+                tilted[d + x] = scratch[x] - scratch[diag + x];
+        }
+    }
+
+    /**
+     * Returns the sum of the pixels in the rectangle from a sum integral.
+     * @param width - width of the image, not of the integral
+     */
+    public static int boxSum(int[] sum, int width, int x, int y, int w, int h) {
+        int stride = width + 1;
+        int top = y * stride + x;
+        int bottom = (y + h) * stride + x;
+        return sum[bottom + w] - sum[bottom] - sum[top + w] + sum[top];
+    }
+
+    /**
+     * Returns the sum of the squared pixels in the rectangle from a squared sum integral.
+     * @param width - width of the image, not of the integral
+     */
+    public static long boxSqsum(long[] sqsum, int width, int x, int y, int w, int h) {
+        int stride = width + 1;
+        int top = y * stride + x;
+        int bottom = (y + h) * stride + x;
+        return sqsum[bottom + w] - sqsum[bottom] - sqsum[top + w] + sqsum[top];
+    }
+
+    private static void checkArgs(byte[] src, int srcStride, int width, int height, int dstLength) {
+        if (width < 0 || height < 0 || srcStride < width)
+            throw new java.lang.IllegalArgumentException("Invalid size " + width + "x" + height + " or stride " + srcStride);
+        if (height > 0 && src.length < (height - 1) * srcStride + width)
+            throw new java.lang.IllegalArgumentException("Source too small for a " + width + "x" + height + " image");
+        if (dstLength < (width + 1) * (height + 1))
+            throw new java.lang.IllegalArgumentException("Destination too small for a " + width + "x" + height + " integral");
+    }
+}
@@ -0,0 +1,106 @@
+package org.opencv.utils;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Compares IntegralImage with a naive reference; runs on the host.
+ */
+public class IntegralImageTest {
+
+    private static final int[][] SIZES = {
+            { 1, 1 }, { 1, 5 }, { 5, 1 }, { 7, 3 }, { 3, 7 }, { 16, 9 }, { 0, 4 }, { 4, 0 }, { 31, 17 }
+    };
+
+    @Test
+    public void matchesNaiveReference() throws Exception {
+        Random random = new Random(1);
+        for (int[] size : SIZES) {
+            int width = size[0];
+            int height = size[1];
+            int srcStride = width + random.nextInt(3);
+            byte[] src = new byte[Math.max(srcStride * height, 1)];
+            random.nextBytes(src);
+
+            int[] sum = new int[(width + 1) * (height + 1)];
+            long[] sqsum = new long[(width + 1) * (height + 1)];
+            int[] tilted = new int[(width + 1) * (height + 1)];
+            // stale contents of a reused scratch array must not matter
+            int[] scratch = new int[2 * (width + 1) + 1];
+            for (int i = 0; i < scratch.length; i++)
+                scratch[i] = random.nextInt();
+            IntegralImage.sum(src, srcStride, width, height, sum);
+            IntegralImage.sqsum(src, srcStride, width, height, sqsum);
+            IntegralImage.tilted(sum, width, height, tilted, scratch);
+
+            for (int Y = 0; Y <= height; Y++) {
+                for (int X = 0; X <= width; X++) {
+                    long s = 0;
+                    long sq = 0;
+                    long t = 0;
+                    for (int y = 0; y < height; y++) {
+                        for (int x = 0; x < width; x++) {
+                            int v = src[y * srcStride + x] & 0xff;
+                            if (x < X && y < Y) {
+                                s += v;
+                                sq += v * v;
+                            }
+                            if (y < Y && Math.abs(x - X + 1) <= Y - y - 1)
+                                t += v;
+                        }
+                    }
+                    int i = Y * (width + 1) + X;
+                    String at = width + "x" + height + " at " + X + "," + Y;
+                    assertEquals("sum " + at, s, sum[i]);
+                    assertEquals("sqsum " + at, sq, sqsum[i]);
+                    assertEquals("tilted " + at, t, tilted[i]);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void boxSums() throws Exception {
+        int width = 6;
+        int height = 4;
+        byte[] src = new byte[width * height];
+        for (int i = 0; i < src.length; i++)
+            src[i] = (byte) (200 + i);
+        int[] sum = new int[(width + 1) * (height + 1)];
+        long[] sqsum = new long[(width + 1) * (height + 1)];
+        IntegralImage.sum(src, width, width, height, sum);
+        IntegralImage.sqsum(src, width, width, height, sqsum);
+
+        // rows 1..2, cols 2..4
+        int s = 0;
+        long sq = 0;
+        for (int y = 1; y <= 2; y++) {
+            for (int x = 2; x <= 4; x++) {
+                int v = src[y * width + x] & 0xff;
+                s += v;
+                sq += v * v;
+            }
+        }
+        assertEquals(s, IntegralImage.boxSum(sum, width, 2, 1, 3, 2));
+        assertEquals(sq, IntegralImage.boxSqsum(sqsum, width, 2, 1, 3, 2));
+        assertEquals(0, IntegralImage.boxSum(sum, width, 3, 3, 0, 1));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsSmallDestination() throws Exception {
+        IntegralImage.sum(new byte[12], 4, 4, 3, new int[19]);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsSmallStride() throws Exception {
+        IntegralImage.sum(new byte[12], 3, 4, 3, new int[20]);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsSmallScratch() throws Exception {
+        IntegralImage.tilted(new int[20], 4, 3, new int[20], new int[9]);
+    }
+}
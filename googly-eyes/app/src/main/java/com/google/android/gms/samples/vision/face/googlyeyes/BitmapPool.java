@@ -0,0 +1,188 @@
+/*
+ * Copyright (C) The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.android.gms.samples.vision.face.googlyeyes;
+
+import android.annotation.TargetApi;
+import android.content.res.Resources;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.os.Build;
+
+import java.util.LinkedList;
+
+/**
+ * A small, bounded pool of mutable bitmaps which are no longer displayed, so that their pixel
+ * memory can be reused for decoding (via {@code BitmapFactory.Options.inBitmap}) or drawing instead
+ * of allocating a new multi-megabyte bitmap every time.<p>
+ *
+ * On KitKat and later, a pooled bitmap can be reconfigured to any size which fits into its
+ * allocation.  On earlier versions, only a bitmap with exactly the requested size and config can be
+ * reused.  When the pool is full, the least recently returned bitmap is dropped and left to the
+ * garbage collector rather than recycled, since a frame snapshotted before the bitmap was returned
+ * may still be drawing it on another thread.<p>
+ *
+ * {@link #decodeResource(Resources, int)} and {@link #copyToMutable(Bitmap)} supply mutable
+ * bitmaps entirely in memory, decoding into or copying into pooled bitmaps where possible, so that
+ * neither touches storage nor depends on the garbage collector to free the previous bitmap.<p>
+ *
+ * The pool is accessed from the UI thread and from background threads, so all access is
+ * synchronized on the instance.
+ */
+class BitmapPool {
+    private final int mMaxSize;
+    private final LinkedList<Bitmap> mBitmaps = new LinkedList<>();
+
+    /**
+     * @param maxSize the maximum number of bitmaps kept for reuse
+     */
+    BitmapPool(int maxSize) {
+        mMaxSize = maxSize;
+    }
+
+    /**
+     * Removes and returns a pooled bitmap of the given size and config, or returns null if none of
+     * the pooled bitmaps can be reused for it.  The contents of the returned bitmap are undefined.
+     */
+    synchronized Bitmap get(int width, int height, Bitmap.Config config) {
+        for (int i = 0; i < mBitmaps.size(); ++i) {
+            Bitmap bitmap = mBitmaps.get(i);
+            if (canReuse(bitmap, width, height, config)) {
+                mBitmaps.remove(i);
+                reconfigure(bitmap, width, height, config);
+                return bitmap;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Returns a pooled bitmap of the given size and config if there is one, or allocates a new
+     * mutable bitmap otherwise.  The contents of the returned bitmap are undefined.
+     */
+    Bitmap getOrCreate(int width, int height, Bitmap.Config config) {
+        Bitmap bitmap = get(width, height, config);
+        return (bitmap != null) ? bitmap : Bitmap.createBitmap(width, height, config);
+    }
+
+    /**
+     * Decodes a resource into a mutable ARGB_8888 bitmap, reusing the memory of a pooled bitmap
+     * through {@code inBitmap} where the platform allows it.  Returns null if the resource cannot be
+     * decoded.
+     */
+    Bitmap decodeResource(Resources resources, int id) {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.HONEYCOMB) {
+            Bitmap decoded = BitmapFactory.decodeResource(resources, id);
+            return (decoded == null) ? null : copyToMutable(decoded);
+        }
+
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+        BitmapFactory.decodeResource(resources, id, options);
+
+        options.inJustDecodeBounds = false;
+        options.inMutable = true;
+        options.inPreferredConfig = Bitmap.Config.ARGB_8888;
+        if ((options.outWidth > 0) && (options.outHeight > 0)) {
+            options.inBitmap = get(options.outWidth, options.outHeight, Bitmap.Config.ARGB_8888);
+        }
+        try {
+            return BitmapFactory.decodeResource(resources, id, options);
+        } catch (IllegalArgumentException e) {
+            // The pooled bitmap did not fit after all, e.g., because of density scaling.
+            put(options.inBitmap);
+            options.inBitmap = null;
+            return BitmapFactory.decodeResource(resources, id, options);
+        }
+    }
+
+    /**
+     * Returns a mutable copy of the bitmap, drawn into a pooled bitmap if there is a suitable one,
+     * and recycles the source.  Returns the bitmap itself if it is mutable already.
+     */
+    Bitmap copyToMutable(Bitmap source) {
+        if (source.isMutable()) {
+            return source;
+        }
+
+        Bitmap.Config config =
+                (source.getConfig() != null) ? source.getConfig() : Bitmap.Config.ARGB_8888;
+        Bitmap copy = getOrCreate(source.getWidth(), source.getHeight(), config);
+        copy.eraseColor(Color.TRANSPARENT);
+        new Canvas(copy).drawBitmap(source, 0, 0, null);
+        source.recycle();
+        return copy;
+    }
+
+    /**
+     * Returns a bitmap to the pool.  The caller must no longer use or display it, but a frame which
+     * is already being rendered may still draw it, so a bitmap which does not fit into the pool is
+     * dropped, not recycled.  Immutable and recycled bitmaps are ignored.
+     */
+    synchronized void put(Bitmap bitmap) {
+        if ((bitmap == null) || bitmap.isRecycled() || !bitmap.isMutable() ||
+                mBitmaps.contains(bitmap)) {
+            return;
+        }
+        mBitmaps.addLast(bitmap);
+        while (mBitmaps.size() > mMaxSize) {
+            mBitmaps.removeFirst();
+        }
+    }
+
+    /**
+     * Recycles all pooled bitmaps.
+     */
+    synchronized void clear() {
+        for (Bitmap bitmap : mBitmaps) {
+            bitmap.recycle();
+        }
+        mBitmaps.clear();
+    }
+
+    //==============================================================================================
+    // Private
+    //==============================================================================================
+
+    private static boolean canReuse(Bitmap bitmap, int width, int height, Bitmap.Config config) {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT) {
+            return bitmap.getAllocationByteCount() >= width * height * bytesPerPixel(config);
+        }
+        return (bitmap.getWidth() == width) && (bitmap.getHeight() == height) &&
+                (bitmap.getConfig() == config);
+    }
+
+    @TargetApi(Build.VERSION_CODES.KITKAT)
+    private static void reconfigure(Bitmap bitmap, int width, int height, Bitmap.Config config) {
+        if ((bitmap.getWidth() != width) || (bitmap.getHeight() != height) ||
+                (bitmap.getConfig() != config)) {
+            bitmap.reconfigure(width, height, config);
+        }
+    }
+
+    private static int bytesPerPixel(Bitmap.Config config) {
+        switch (config) {
+            case ALPHA_8:
+                return 1;
+            case RGB_565:
+            case ARGB_4444:
+                return 2;
+            default:
+                return 4;
+        }
+    }
+}
@@ -0,0 +1,453 @@
+/*
+ * Copyright (C) The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.android.gms.samples.vision.face.googlyeyes;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.graphics.ImageFormat;
+import android.os.Build;
+import android.os.Process;
+import android.os.SystemClock;
+import android.util.Log;
+import android.util.SparseArray;
+
+import com.google.android.gms.vision.Detector;
+import com.google.android.gms.vision.Frame;
+import com.google.android.gms.vision.face.Face;
+import com.google.android.gms.vision.face.FaceDetector;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Chooses the camera preview size, frame rate and minimum face size for the face detector on this
+ * device.<p>
+ *
+ * Until a camera facing is tuned, the detector returned by {@link #sampleFrames} keeps copies of a
+ * few live camera frames in which faces were found.  Once the camera is stopped,
+ * {@link #onCameraStopped(boolean)} benchmarks the detector on those frames, scaled to several
+ * preview sizes, and picks the largest size (i.e., the most accurate one) whose median detection
+ * latency still fits within the frame budget.  If even the smallest size is too slow, it gives up
+ * some accuracy by raising the minimum face size, which reduces the number of scales that the
+ * detector has to scan.  The chosen profile is persisted and returned by
+ * {@link #getProfile(boolean)} on subsequent starts.<p>
+ *
+ * The benchmark only runs while the camera is stopped, so that it does not compete with the live
+ * detector for the CPU.  If the camera is started again before it completes, it is abandoned and
+ * repeated the next time the camera stops.<p>
+ *
+ * Profiles are keyed by the build fingerprint, so that they are re-tuned after a system update or
+ * when the preferences are restored onto a different device.
+ */
+class DetectorTuner {
+    private static final String TAG = "DetectorTuner";
+
+    private static final String PREFS_NAME = "detector_tuning";
+
+    // Detection has to complete within this budget for the pipeline to keep up with the target
+    // frame rate.
+    private static final float TARGET_FPS = 30.0f;
+    private static final float FRAME_BUDGET_MS = 1000.0f / TARGET_FPS;
+    private static final float MAX_FPS = 60.0f;
+
+    // Candidate preview sizes, from most accurate to fastest.
+    private static final int[][] CANDIDATE_SIZES = {{1280, 720}, {640, 480}, {320, 240}};
+
+    private static final int WARMUP_ITERATIONS = 3;
+    private static final int BENCHMARK_ITERATIONS = 10;
+
+    // Live frames kept for the benchmark, taken at least this far apart so that they show some
+    // variety of poses.
+    private static final int SAMPLE_FRAMES = 5;
+    private static final long SAMPLE_INTERVAL_MS = 500;
+
+    private static final float MIN_FACE_SIZE_STEP = 0.05f;
+    private static final float MAX_MIN_FACE_SIZE = 0.5f;
+
+    /**
+     * Preview and detector settings for one camera facing.
+     */
+    static final class Profile {
+        final int previewWidth;
+        final int previewHeight;
+        final float requestedFps;
+        final float minFaceSize;
+
+        Profile(int previewWidth, int previewHeight, float requestedFps, float minFaceSize) {
+            this.previewWidth = previewWidth;
+            this.previewHeight = previewHeight;
+            this.requestedFps = requestedFps;
+            this.minFaceSize = minFaceSize;
+        }
+
+        @Override
+        public String toString() {
+            return previewWidth + "x" + previewHeight + " @" + requestedFps + "fps, min face "
+                    + minFaceSize;
+        }
+    }
+
+    /**
+     * The luma plane of a live camera frame, in the orientation delivered by the camera.
+     */
+    private static final class Sample {
+        final byte[] luma;
+        final int width;
+        final int height;
+        final int rotation;
+
+        Sample(byte[] luma, int width, int height, int rotation) {
+            this.luma = luma;
+            this.width = width;
+            this.height = height;
+            this.rotation = rotation;
+        }
+    }
+
+    /**
+     * Passes frames through to the detector and keeps samples of those in which faces were found.
+     */
+    private final class SamplingDetector extends Detector<Face> {
+        private final Detector<Face> mDelegate;
+        private final int mIndex;
+
+        SamplingDetector(Detector<Face> delegate, int index) {
+            mDelegate = delegate;
+            mIndex = index;
+        }
+
+        @Override
+        public SparseArray<Face> detect(Frame frame) {
+            SparseArray<Face> faces = mDelegate.detect(frame);
+            if (faces.size() > 0) {
+                offerSample(mIndex, frame);
+            }
+            return faces;
+        }
+
+        @Override
+        public boolean isOperational() {
+            return mDelegate.isOperational();
+        }
+
+        @Override
+        public boolean setFocus(int id) {
+            return mDelegate.setFocus(id);
+        }
+
+        @Override
+        public void release() {
+            mDelegate.release();
+            super.release();
+        }
+    }
+
+    private final Context mContext;
+    private final SharedPreferences mPrefs;
+
+    // Whether tuning is running for the back (index 0) and front (index 1) cameras.
+    private final boolean[] mTuning = new boolean[2];
+
+    // Sampled frames for the back and front cameras, guarded by mSamples.
+    private final Sample[][] mSamples = new Sample[2][SAMPLE_FRAMES];
+    private final int[] mSampleCounts = new int[2];
+    private final long[] mLastSampleMs = new long[2];
+
+    private volatile boolean mCameraRunning;
+
+    DetectorTuner(Context context) {
+        mContext = context.getApplicationContext();
+        mPrefs = mContext.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+    }
+
+    /**
+     * Returns the default settings, used until the device has been tuned.
+     */
+    static Profile getDefaultProfile(boolean isFrontFacing) {
+        return new Profile(320, 240, MAX_FPS, isFrontFacing ? 0.35f : 0.15f);
+    }
+
+    /**
+     * Returns true if a tuned profile is stored for this device and camera facing.
+     */
+    boolean hasProfile(boolean isFrontFacing) {
+        String prefix = keyPrefix(isFrontFacing);
+        return Build.FINGERPRINT.equals(mPrefs.getString(prefix + "fingerprint", null));
+    }
+
+    /**
+     * Returns the tuned profile for the camera facing, or the default profile if the device has not
+     * been tuned yet.
+     */
+    Profile getProfile(boolean isFrontFacing) {
+        if (!hasProfile(isFrontFacing)) {
+            return getDefaultProfile(isFrontFacing);
+        }
+
+        String prefix = keyPrefix(isFrontFacing);
+        Profile defaults = getDefaultProfile(isFrontFacing);
+        return new Profile(
+                mPrefs.getInt(prefix + "width", defaults.previewWidth),
+                mPrefs.getInt(prefix + "height", defaults.previewHeight),
+                mPrefs.getFloat(prefix + "fps", defaults.requestedFps),
+                mPrefs.getFloat(prefix + "minFaceSize", defaults.minFaceSize));
+    }
+
+    /**
+     * Wraps the detector, so that frames in which it finds faces are sampled for tuning if the
+     * camera facing has not been tuned yet.  Otherwise returns the detector itself.
+     */
+    Detector<Face> sampleFrames(Detector<Face> detector, boolean isFrontFacing) {
+        if (hasProfile(isFrontFacing)) {
+            return detector;
+        }
+        return new SamplingDetector(detector, isFrontFacing ? 1 : 0);
+    }
+
+    /**
+     * Called when the camera starts delivering frames.  Abandons a benchmark in progress.
+     */
+    void onCameraStarted() {
+        mCameraRunning = true;
+    }
+
+    /**
+     * Called when the camera has stopped.  Tunes the camera facing on a background thread if it
+     * has not been tuned yet and frames were sampled for it.
+     */
+    void onCameraStopped(boolean isFrontFacing) {
+        mCameraRunning = false;
+        if (!hasProfile(isFrontFacing)) {
+            tuneInBackground(isFrontFacing);
+        }
+    }
+
+    //==============================================================================================
+    // Private
+    //==============================================================================================
+
+    /**
+     * Keeps a copy of the frame's luma plane if more samples are needed for the camera facing.
+     * Called on the detector thread.
+     */
+    private void offerSample(int index, Frame frame) {
+        synchronized (mSamples) {
+            long nowMs = SystemClock.elapsedRealtime();
+            if ((mSampleCounts[index] == SAMPLE_FRAMES) ||
+                    (nowMs - mLastSampleMs[index] < SAMPLE_INTERVAL_MS)) {
+                return;
+            }
+
+            Frame.Metadata metadata = frame.getMetadata();
+            int width = metadata.getWidth();
+            int height = metadata.getHeight();
+            byte[] luma = new byte[width * height];
+            ByteBuffer data = frame.getGrayscaleImageData().duplicate();
+            data.rewind();
+            data.get(luma);
+
+            mSamples[index][mSampleCounts[index]++] =
+                    new Sample(luma, width, height, metadata.getRotation());
+            mLastSampleMs[index] = nowMs;
+        }
+    }
+
+    /**
+     * Benchmarks the detector on a background thread and stores the resulting profile, to be
+     * applied the next time the camera source is created.  Does nothing if no frames have been
+     * sampled, or if the detector is not operational yet, in which case tuning is retried the next
+     * time the camera stops.
+     */
+    private void tuneInBackground(final boolean isFrontFacing) {
+        final int index = isFrontFacing ? 1 : 0;
+        final Sample[] samples;
+        synchronized (mSamples) {
+            samples = Arrays.copyOf(mSamples[index], mSampleCounts[index]);
+        }
+        if (samples.length == 0) {
+            return;
+        }
+
+        synchronized (mTuning) {
+            if (mTuning[index]) {
+                return;
+            }
+            mTuning[index] = true;
+        }
+
+        Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                try {
+                    Profile profile = tune(isFrontFacing, samples);
+                    if (profile != null) {
+                        saveProfile(isFrontFacing, profile);
+                        Log.i(TAG, "Tuned " + (isFrontFacing ? "front" : "back") + " camera: "
+                                + profile);
+                    }
+                } finally {
+                    synchronized (mTuning) {
+                        mTuning[index] = false;
+                    }
+                }
+            }
+        }, "DetectorTuner");
+        thread.start();
+    }
+
+    private Profile tune(boolean isFrontFacing, Sample[] samples) {
+        float minFaceSize = getDefaultProfile(isFrontFacing).minFaceSize;
+
+        while (true) {
+            FaceDetector detector = createDetector(isFrontFacing, minFaceSize);
+            try {
+                if (!detector.isOperational()) {
+                    Log.w(TAG, "Face detector is not operational yet, skipping tuning.");
+                    return null;
+                }
+
+                float smallestLatencyMs = Float.MAX_VALUE;
+                for (int[] size : CANDIDATE_SIZES) {
+                    float latencyMs = measureLatencyMs(detector, samples, size[0], size[1]);
+                    if (Float.isNaN(latencyMs)) {
+                        Log.i(TAG, "Camera restarted, tuning postponed.");
+                        return null;
+                    }
+                    Log.d(TAG, String.format("%dx%d, min face %.2f: %.1fms",
+                            size[0], size[1], minFaceSize, latencyMs));
+
+                    if (latencyMs <= FRAME_BUDGET_MS) {
+                        return new Profile(size[0], size[1], fpsFor(latencyMs), minFaceSize);
+                    }
+                    smallestLatencyMs = latencyMs;
+                }
+
+                // Even the smallest preview size is too slow.  Scan fewer scales, unless the
+                // minimum face size is already as large as is useful.
+                if (minFaceSize + MIN_FACE_SIZE_STEP > MAX_MIN_FACE_SIZE) {
+                    int[] smallest = CANDIDATE_SIZES[CANDIDATE_SIZES.length - 1];
+                    return new Profile(smallest[0], smallest[1], fpsFor(smallestLatencyMs),
+                            minFaceSize);
+                }
+                minFaceSize += MIN_FACE_SIZE_STEP;
+            } finally {
+                detector.release();
+            }
+        }
+    }
+
+    /**
+     * Creates a detector with the same configuration as the per-frame landmark detector used by
+     * GooglyEyesActivity, but without a processor, so that detect() can be called directly.  The
+     * classification detector runs at a much lower rate and is not part of the frame budget.
+     */
+    private FaceDetector createDetector(boolean isFrontFacing, float minFaceSize) {
+        return new FaceDetector.Builder(mContext)
+                .setLandmarkType(FaceDetector.ALL_LANDMARKS)
+                .setClassificationType(FaceDetector.NO_CLASSIFICATIONS)
+                .setTrackingEnabled(false)
+                .setMode(FaceDetector.FAST_MODE)
+                .setProminentFaceOnly(isFrontFacing)
+                .setMinFaceSize(minFaceSize)
+                .build();
+    }
+
+    /**
+     * Returns the median latency of detecting faces in the sampled frames, scaled to the given
+     * size, or NaN if the camera was started during the measurement.
+     */
+    private float measureLatencyMs(FaceDetector detector, Sample[] samples, int width,
+                                   int height) {
+        Frame[] frames = new Frame[samples.length];
+        for (int i = 0; i < samples.length; ++i) {
+            frames[i] = new Frame.Builder()
+                    .setImageData(ByteBuffer.wrap(scaleToNv21(samples[i], width, height)),
+                            width, height, ImageFormat.NV21)
+                    .setRotation(samples[i].rotation)
+                    .build();
+        }
+
+        for (int i = 0; i < WARMUP_ITERATIONS; ++i) {
+            detector.detect(frames[i % frames.length]);
+        }
+
+        long[] latenciesNs = new long[BENCHMARK_ITERATIONS];
+        for (int i = 0; i < BENCHMARK_ITERATIONS; ++i) {
+            if (mCameraRunning) {
+                return Float.NaN;
+            }
+            long startNs = System.nanoTime();
+            detector.detect(frames[i % frames.length]);
+            latenciesNs[i] = System.nanoTime() - startNs;
+        }
+        if (mCameraRunning) {
+            return Float.NaN;
+        }
+        Arrays.sort(latenciesNs);
+        return latenciesNs[BENCHMARK_ITERATIONS / 2] / 1000000.0f;
+    }
+
+    /**
+     * Scales the sample to fill a frame of the given size, keeping its aspect ratio and cropping
+     * the center, and returns it as NV21 data with neutral chroma.
+     */
+    private static byte[] scaleToNv21(Sample sample, int width, int height) {
+        int lumaSize = width * height;
+        byte[] data = new byte[lumaSize + (lumaSize / 2)];
+        Arrays.fill(data, lumaSize, data.length, (byte) 128);
+
+        // source pixels per destination pixel, in 16.16 fixed point
+        long step = Math.min(((long) sample.width << 16) / width,
+                ((long) sample.height << 16) / height);
+        long x0 = (((long) sample.width << 16) - step * width) / 2;
+        long y0 = (((long) sample.height << 16) - step * height) / 2;
+        for (int y = 0; y < height; ++y) {
+            int srcRow = (int) ((y0 + step * y) >> 16) * sample.width;
+            int dstRow = y * width;
+            for (int x = 0; x < width; ++x) {
+                data[dstRow + x] = sample.luma[srcRow + (int) ((x0 + step * x) >> 16)];
+            }
+        }
+        return data;
+    }
+
+    /**
+     * Requests the frame rate the detector can keep up with, so that the camera does not produce
+     * frames which would only be dropped.
+     */
+    private static float fpsFor(float latencyMs) {
+        if (latencyMs <= 0) {
+            return MAX_FPS;
+        }
+        return Math.max(1.0f, Math.min(MAX_FPS, 1000.0f / latencyMs));
+    }
+
+    private void saveProfile(boolean isFrontFacing, Profile profile) {
+        String prefix = keyPrefix(isFrontFacing);
+        mPrefs.edit()
+                .putInt(prefix + "width", profile.previewWidth)
+                .putInt(prefix + "height", profile.previewHeight)
+                .putFloat(prefix + "fps", profile.requestedFps)
+                .putFloat(prefix + "minFaceSize", profile.minFaceSize)
+                .putString(prefix + "fingerprint", Build.FINGERPRINT)
+                .apply();
+    }
+
+    private static String keyPrefix(boolean isFrontFacing) {
+        return isFrontFacing ? "front_" : "back_";
+    }
+}
@@ -117,6 +117,21 @@ class EyePhysics {
         return mIrisPosition;
     }
 
+    /**
+     * Returns the simulation to its initial state, so that the iris of a reused eye starts again at
+     * rest in the center of the eye.
+     */
+    void reset() {
+        mLastUpdateTimeMs = SystemClock.elapsedRealtime();
+        mEyePosition = null;
+        mEyeRadius = 0.0f;
+        mIrisPosition = null;
+        mIrisRadius = 0.0f;
+        vx = 0.0f;
+        vy = 0.0f;
+        mConsecutiveBounces = 0;
+    }
+
     /**
      * Friction slows velocity in the opposite direction of motion, until zero velocity is reached.
      */
@@ -0,0 +1,256 @@
+/*
+ * Copyright (C) The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.android.gms.samples.vision.face.googlyeyes;
+
+import android.os.Debug;
+import android.os.SystemClock;
+import android.util.Log;
+import android.util.SparseArray;
+
+import com.google.android.gms.vision.Detector;
+import com.google.android.gms.vision.Frame;
+import com.google.android.gms.vision.face.Face;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Wraps a face detector so that the full landmark and classification detection only runs on every
+ * Nth frame, or sooner if the image changed noticeably since the last detection.  For the frames in
+ * between, the faces of the last detection are reported again.<p>
+ *
+ * Re-reporting the previous faces keeps tracking ids stable, and GooglyFaceTracker then derives the
+ * same eye positions as before, so the graphic is not invalidated for skipped frames.  Motion is
+ * estimated cheaply from the mean absolute difference of a sparse grid of luma samples, so that a
+ * moving face triggers a real detection immediately rather than lagging behind for N frames.<p>
+ *
+ * Once per second, the detector CPU time is logged together with quality metrics: the fraction of
+ * frames which reused a previous detection, and how far the reused faces were from the faces found
+ * by the next real detection, relative to the face width.  Camera frames which never reached the
+ * detector are counted from gaps in the frame ids, which both CameraSource and Camera2FrameSource
+ * assign to every frame the camera delivers, so that the two frame sources can be compared.  For
+ * the same reason, the acquisition latency from the frame timestamp to detection is logged for
+ * either source, once the time base of the timestamps is set with {@link #setTimestampOrigin}.
+ */
+class FrameSkippingDetector extends Detector<Face> {
+    private static final String TAG = "FrameSkippingDetector";
+
+    private static final long REPORT_INTERVAL_MS = 1000;
+
+    // Number of luma samples taken along each axis for motion estimation.
+    private static final int MOTION_GRID_SIZE = 16;
+
+    private final Detector<Face> mDelegate;
+    private final int mFullDetectionInterval;
+    private final int mMotionThreshold;
+
+    private SparseArray<Face> mLastFaces;
+    private int mLastFrameId = -1;
+    private int mFramesSinceDetection;
+    private boolean mReusedSinceDetection;
+
+    // SystemClock.elapsedRealtime() at which frame timestamps are zero, or -1 if unknown.
+    private volatile long mTimestampOriginMs = -1;
+
+    // Luma samples of the frame that was last fully detected.
+    private final int[] mReferenceSamples = new int[MOTION_GRID_SIZE * MOTION_GRID_SIZE];
+    private final int[] mSamples = new int[MOTION_GRID_SIZE * MOTION_GRID_SIZE];
+
+    // Statistics for the current reporting interval.
+    private long mIntervalStartMs = SystemClock.elapsedRealtime();
+    private int mDetectedFrames;
+    private int mReusedFrames;
+    private int mDroppedFrames;
+    private long mDetectCpuNs;
+    private int mErrorSamples;
+    private float mTotalError;
+    private float mMaxError;
+    private int mLatencySamples;
+    private long mTotalLatencyMs;
+    private long mMaxLatencyMs;
+
+    /**
+     * @param delegate              the detector which performs the actual detection
+     * @param fullDetectionInterval run a real detection at least every this many frames
+     * @param motionThreshold       mean absolute luma difference (0-255) from the last detected
+     *                              frame above which a real detection runs immediately
+     */
+    FrameSkippingDetector(Detector<Face> delegate, int fullDetectionInterval,
+                          int motionThreshold) {
+        mDelegate = delegate;
+        mFullDetectionInterval = Math.max(1, fullDetectionInterval);
+        mMotionThreshold = motionThreshold;
+    }
+
+    /**
+     * Sets the SystemClock.elapsedRealtime() value from which the frame timestamps are counted, so
+     * that the acquisition latency can be measured, or -1 if their time base is unknown.  May be
+     * called from any thread.
+     */
+    void setTimestampOrigin(long originMs) {
+        mTimestampOriginMs = originMs;
+    }
+
+    @Override
+    public SparseArray<Face> detect(Frame frame) {
+        long originMs = mTimestampOriginMs;
+        if (originMs >= 0) {
+            recordLatency(SystemClock.elapsedRealtime() -
+                    (originMs + frame.getMetadata().getTimestampMillis()));
+        }
+
+        int frameId = frame.getMetadata().getId();
+        if ((mLastFrameId >= 0) && (frameId > mLastFrameId + 1)) {
+            mDroppedFrames += frameId - mLastFrameId - 1;
+        }
+        mLastFrameId = frameId;
+
+        sampleLuma(frame, mSamples);
+
+        if ((mLastFaces != null) && (mFramesSinceDetection + 1 < mFullDetectionInterval) &&
+                (meanAbsoluteDifference(mSamples, mReferenceSamples) <= mMotionThreshold)) {
+            mFramesSinceDetection++;
+            mReusedSinceDetection = true;
+            mReusedFrames++;
+            reportIfIntervalElapsed();
+            return mLastFaces;
+        }
+
+        long startCpuNs = Debug.threadCpuTimeNanos();
+        SparseArray<Face> faces = mDelegate.detect(frame);
+        mDetectCpuNs += Debug.threadCpuTimeNanos() - startCpuNs;
+        mDetectedFrames++;
+
+        if (mReusedSinceDetection) {
+            recordReuseError(mLastFaces, faces);
+        }
+
+        mLastFaces = faces;
+        mFramesSinceDetection = 0;
+        mReusedSinceDetection = false;
+        System.arraycopy(mSamples, 0, mReferenceSamples, 0, mSamples.length);
+
+        reportIfIntervalElapsed();
+        return faces;
+    }
+
+    @Override
+    public boolean isOperational() {
+        return mDelegate.isOperational();
+    }
+
+    @Override
+    public boolean setFocus(int id) {
+        return mDelegate.setFocus(id);
+    }
+
+    @Override
+    public void release() {
+        mDelegate.release();
+        super.release();
+    }
+
+    //==============================================================================================
+    // Private
+    //==============================================================================================
+
+    /**
+     * Samples the luma plane of the frame on a regular grid.
+     */
+    private static void sampleLuma(Frame frame, int[] samples) {
+        ByteBuffer luma = frame.getGrayscaleImageData();
+        int width = frame.getMetadata().getWidth();
+        int height = frame.getMetadata().getHeight();
+
+        int index = 0;
+        for (int gy = 0; gy < MOTION_GRID_SIZE; ++gy) {
+            int rowOffset = (((2 * gy + 1) * height) / (2 * MOTION_GRID_SIZE)) * width;
+            for (int gx = 0; gx < MOTION_GRID_SIZE; ++gx) {
+                int x = ((2 * gx + 1) * width) / (2 * MOTION_GRID_SIZE);
+                samples[index++] = luma.get(rowOffset + x) & 0xFF;
+            }
+        }
+    }
+
+    private static int meanAbsoluteDifference(int[] a, int[] b) {
+        int sum = 0;
+        for (int i = 0; i < a.length; ++i) {
+            sum += Math.abs(a[i] - b[i]);
+        }
+        return sum / a.length;
+    }
+
+    /**
+     * Measures how far the faces which were re-reported on skipped frames were from the faces that
+     * the following real detection found, as a fraction of the face width.
+     */
+    private void recordReuseError(SparseArray<Face> reused, SparseArray<Face> detected) {
+        for (int i = 0; i < detected.size(); ++i) {
+            Face face = detected.valueAt(i);
+            Face previous = reused.get(face.getId());
+            if ((previous == null) || (face.getWidth() <= 0)) {
+                continue;
+            }
+
+            float dx = face.getPosition().x - previous.getPosition().x;
+            float dy = face.getPosition().y - previous.getPosition().y;
+            float error = (float) Math.sqrt(dx * dx + dy * dy) / face.getWidth();
+            mErrorSamples++;
+            mTotalError += error;
+            mMaxError = Math.max(mMaxError, error);
+        }
+    }
+
+    private void recordLatency(long latencyMs) {
+        mLatencySamples++;
+        mTotalLatencyMs += latencyMs;
+        mMaxLatencyMs = Math.max(mMaxLatencyMs, latencyMs);
+    }
+
+    private void reportIfIntervalElapsed() {
+        long nowMs = SystemClock.elapsedRealtime();
+        long elapsedMs = nowMs - mIntervalStartMs;
+        if (elapsedMs < REPORT_INTERVAL_MS) {
+            return;
+        }
+
+        float seconds = elapsedMs / 1000.0f;
+        int frames = mDetectedFrames + mReusedFrames;
+        String latency = (mLatencySamples == 0) ? "n/a" : String.format(
+                "avg=%.1fms max=%dms",
+                mTotalLatencyMs / (float) mLatencySamples, mMaxLatencyMs);
+        Log.d(TAG, String.format(
+                "detector cpu=%.1fms/s, frames/s detected=%.1f reused=%.1f (%.0f%%) "
+                        + "dropped before detection=%.1f, "
+                        + "reuse error avg=%.3f max=%.3f face widths, acquisition latency %s",
+                (mDetectCpuNs / 1000000.0f) / seconds,
+                mDetectedFrames / seconds, mReusedFrames / seconds,
+                (frames == 0) ? 0.0f : (100.0f * mReusedFrames) / frames,
+                mDroppedFrames / seconds,
+                (mErrorSamples == 0) ? 0.0f : mTotalError / mErrorSamples, mMaxError, latency));
+
+        mIntervalStartMs = nowMs;
+        mDetectedFrames = 0;
+        mReusedFrames = 0;
+        mDroppedFrames = 0;
+        mDetectCpuNs = 0;
+        mErrorSamples = 0;
+        mTotalError = 0;
+        mMaxError = 0;
+        mLatencySamples = 0;
+        mTotalLatencyMs = 0;
+        mMaxLatencyMs = 0;
+    }
+}
@@ -25,11 +25,10 @@ import android.content.Intent;
 import android.content.IntentFilter;
 import android.content.pm.PackageManager;
 import android.graphics.Bitmap;
-import android.graphics.BitmapFactory;
 import android.os.Build;
 import android.os.Bundle;
+import android.os.SystemClock;
 import android.support.annotation.NonNull;
-import android.support.annotation.RequiresApi;
 import android.support.design.widget.Snackbar;
 import android.support.v4.app.ActivityCompat;
 import android.support.v7.app.AppCompatActivity;
@@ -48,10 +47,12 @@ import com.google.android.gms.vision.MultiProcessor;
 import com.google.android.gms.vision.Tracker;
 import com.google.android.gms.vision.face.Face;
 import com.google.android.gms.vision.face.FaceDetector;
+import com.google.android.gms.samples.vision.face.googlyeyes.ui.camera.Camera2FrameSource;
 import com.google.android.gms.samples.vision.face.googlyeyes.ui.camera.CameraSourcePreview;
 import com.google.android.gms.samples.vision.face.googlyeyes.ui.camera.GraphicOverlay;
 import com.google.android.gms.vision.face.LargestFaceFocusingProcessor;
 
+import java.io.File;
 import java.io.IOException;
 
 /**
@@ -81,13 +82,43 @@ public final class GooglyEyesActivity extends AppCompatActivity {
     // permission request codes need to be < 256
     private static final int RC_HANDLE_CAMERA_PERM = 2;
 
+    // Draw the googly eyes from a dedicated rendering thread where supported, rather than on the UI
+    // thread.  Set to false to compare both modes using the OverlayMetrics log output.
+    private static final boolean USE_OVERLAY_RENDER_THREAD = true;
+
+    // Run the full face detection at least every this many frames, or sooner if the mean luma
+    // difference from the last detected frame exceeds the threshold.  See FrameSkippingDetector.
+    private static final int FULL_DETECTION_INTERVAL = 3;
+    private static final int MOTION_THRESHOLD = 6;
+
+    // Eye open/closed classification runs at most this long apart, which bounds how late a blink
+    // is shown.  See SampledClassificationDetector.
+    private static final long MAX_BLINK_LAG_MS = 150;
+
+    // Number of graphics of faces which are gone that are kept for reuse by new faces.
+    private static final int GRAPHIC_POOL_SIZE = 4;
+
+    // Whether to receive frames through Camera2 rather than through CameraSource, on devices which
+    // support it.  Taking pictures is only supported with CameraSource.
+    private static final boolean USE_CAMERA2_FRAME_SOURCE = false;
+    private static final int CAMERA2_MAX_IMAGES = 2;
+    private static final int CAMERA2_BACKPRESSURE_POLICY =
+            Camera2FrameSource.BACKPRESSURE_KEEP_LATEST;
+
     private CameraSource mCameraSource = null;
+    private Camera2FrameSource mCamera2Source = null;
     private CameraSourcePreview mPreview;
     private GraphicOverlay mGraphicOverlay;
+    private GooglyEyesGraphicPool mGraphicPool;
 
     private boolean mIsFrontFacing = true;
 
+    private DetectorTuner mDetectorTuner;
+
     private ImageView previewImageView;
+    private Bitmap mPreviewBitmap;
+    private PictureDecoder mPictureDecoder;
+    private SnapshotExporter mSnapshotExporter;
 
     //==============================================================================================
     // Activity Methods
@@ -103,11 +134,17 @@ public final class GooglyEyesActivity extends AppCompatActivity {
 
         mPreview = (CameraSourcePreview) findViewById(R.id.preview);
         mGraphicOverlay = (GraphicOverlay) findViewById(R.id.faceOverlay);
+        mGraphicOverlay.setRenderThreadEnabled(USE_OVERLAY_RENDER_THREAD);
+        mGraphicPool = new GooglyEyesGraphicPool(mGraphicOverlay, GRAPHIC_POOL_SIZE);
 
         final Button button = (Button) findViewById(R.id.flipButton);
         button.setOnClickListener(mFlipButtonListener);
 
         previewImageView = (ImageView) findViewById(R.id.preview_image_view);
+        mPictureDecoder = new PictureDecoder();
+        mSnapshotExporter = new SnapshotExporter(mGraphicOverlay, mPictureDecoder);
+
+        mDetectorTuner = new DetectorTuner(this);
 
         if (savedInstanceState != null) {
             mIsFrontFacing = savedInstanceState.getBoolean("IsFrontFacing");
@@ -171,6 +208,7 @@ public final class GooglyEyesActivity extends AppCompatActivity {
     protected void onPause() {
         super.onPause();
         mPreview.stop();
+        mDetectorTuner.onCameraStopped(mIsFrontFacing);
     }
 
     /**
@@ -180,9 +218,10 @@ public final class GooglyEyesActivity extends AppCompatActivity {
     @Override
     protected void onDestroy() {
         super.onDestroy();
-        if (mCameraSource != null) {
-            mCameraSource.release();
-        }
+        releaseCameraSource();
+        mSnapshotExporter.release();
+        mPictureDecoder.release();
+        mGraphicPool.clear();
     }
 
     /**
@@ -252,10 +291,7 @@ public final class GooglyEyesActivity extends AppCompatActivity {
         public void onClick(View v) {
             mIsFrontFacing = !mIsFrontFacing;
 
-            if (mCameraSource != null) {
-                mCameraSource.release();
-                mCameraSource = null;
-            }
+            releaseCameraSource();
 
             createCameraSource();
             startCameraSource();
@@ -272,10 +308,12 @@ public final class GooglyEyesActivity extends AppCompatActivity {
      * warning if it was not possible to download the face library.
      */
     @NonNull
-    private FaceDetector createFaceDetector(Context context) {
+    private FrameSkippingDetector createFaceDetector(Context context,
+                                                    DetectorTuner.Profile profile) {
         // For both front facing and rear facing modes, the detector is initialized to do landmark
         // detection (to find the eyes), classification (to determine if the eyes are open), and
-        // tracking.
+        // tracking.  Classification is done by a second detector which runs at a lower rate than
+        // landmark detection, since the eye state changes less often than the eye positions.
         //
         // Use of "fast mode" enables faster detection for frontward faces, at the expense of not
         // attempting to detect faces at more varied angles (e.g., faces in profile).  Therefore,
@@ -291,15 +329,33 @@ public final class GooglyEyesActivity extends AppCompatActivity {
         // we increase the minimum face size for the rear facing mode a little bit in order to make
         // tracking faster (at the expense of missing smaller faces).  But this optimization is less
         // important for the front facing case, because when "prominent face only" is enabled, the
-        // detector stops scanning for faces after it has found the first (large) face.
-        FaceDetector detector = new FaceDetector.Builder(context)
+        // detector stops scanning for faces after it has found the first (large) face.  The tuner
+        // may raise the minimum face size further on devices which are too slow otherwise.
+        //
+        // The detector is wrapped so that the full detection is skipped for frames in which the
+        // image barely changed, reusing the faces of the last detection instead.  Until the device
+        // is tuned, the frames which are detected are also sampled for the tuning benchmark.
+        FaceDetector landmarkDetector = new FaceDetector.Builder(context)
                 .setLandmarkType(FaceDetector.ALL_LANDMARKS)
-                .setClassificationType(FaceDetector.ALL_CLASSIFICATIONS)
+                .setClassificationType(FaceDetector.NO_CLASSIFICATIONS)
                 .setTrackingEnabled(true)
                 .setMode(FaceDetector.FAST_MODE)
                 .setProminentFaceOnly(mIsFrontFacing)
-                .setMinFaceSize(mIsFrontFacing ? 0.35f : 0.15f)
+                .setMinFaceSize(profile.minFaceSize)
                 .build();
+        FaceDetector classificationDetector = new FaceDetector.Builder(context)
+                .setLandmarkType(FaceDetector.NO_LANDMARKS)
+                .setClassificationType(FaceDetector.ALL_CLASSIFICATIONS)
+                .setTrackingEnabled(false)
+                .setMode(FaceDetector.FAST_MODE)
+                .setProminentFaceOnly(mIsFrontFacing)
+                .setMinFaceSize(profile.minFaceSize)
+                .build();
+        final SampledClassificationDetector faceDetector = new SampledClassificationDetector(
+                landmarkDetector, classificationDetector, MAX_BLINK_LAG_MS);
+        FrameSkippingDetector detector = new FrameSkippingDetector(
+                mDetectorTuner.sampleFrames(faceDetector, mIsFrontFacing),
+                FULL_DETECTION_INTERVAL, MOTION_THRESHOLD);
 
         Detector.Processor<Face> processor;
         if (mIsFrontFacing) {
@@ -308,7 +364,8 @@ public final class GooglyEyesActivity extends AppCompatActivity {
             // speed up detection, in that it can quit after finding a single face and can assume
             // that the nextIrisPosition face position is usually relatively close to the last seen
             // face position.
-            Tracker<Face> tracker = new GooglyFaceTracker(mGraphicOverlay);
+            Tracker<Face> tracker =
+                    new GooglyFaceTracker(mGraphicOverlay, mGraphicPool, faceDetector);
             processor = new LargestFaceFocusingProcessor.Builder(detector, tracker).build();
         } else {
             // For rear facing mode, a factory is used to create per-face tracker instances.  A
@@ -325,7 +382,7 @@ public final class GooglyEyesActivity extends AppCompatActivity {
             MultiProcessor.Factory<Face> factory = new MultiProcessor.Factory<Face>() {
                 @Override
                 public Tracker<Face> create(Face face) {
-                    return new GooglyFaceTracker(mGraphicOverlay);
+                    return new GooglyFaceTracker(mGraphicOverlay, mGraphicPool, faceDetector);
                 }
             };
             processor = new MultiProcessor.Builder<>(factory).build();
@@ -366,7 +423,8 @@ public final class GooglyEyesActivity extends AppCompatActivity {
      */
     private void createCameraSource() {
         Context context = getApplicationContext();
-        FaceDetector detector = createFaceDetector(context);
+        DetectorTuner.Profile profile = mDetectorTuner.getProfile(mIsFrontFacing);
+        FrameSkippingDetector detector = createFaceDetector(context, profile);
 
         int facing = CameraSource.CAMERA_FACING_FRONT;
         if (!mIsFrontFacing) {
@@ -382,12 +440,32 @@ public final class GooglyEyesActivity extends AppCompatActivity {
         // but may miss smaller faces, landmarks, or may not correctly detect eyes open/closed in
         // comparison to using higher camera resolutions.  If you have any of these issues, you may
         // want to increase the resolution.
-        mCameraSource = new CameraSource.Builder(context, detector)
-                .setFacing(facing)
-                .setRequestedPreviewSize(320, 240)
-                .setRequestedFps(60.0f)
-                .setAutoFocusEnabled(true)
-                .build();
+        //
+        // The resolution and frame rate come from a profile which is tuned per device: on the
+        // first launch the default low resolution is used while the tuner samples live frames,
+        // the tuner benchmarks the detector on them once the camera stops, and the highest
+        // resolution that fits the frame budget is used from the next start onwards.
+        if (USE_CAMERA2_FRAME_SOURCE &&
+                (Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP)) {
+            mCamera2Source = new Camera2FrameSource.Builder(context, detector)
+                    .setFacing(facing)
+                    .setRequestedPreviewSize(profile.previewWidth, profile.previewHeight)
+                    .setRequestedFps(profile.requestedFps)
+                    .setMaxImages(CAMERA2_MAX_IMAGES)
+                    .setBackpressurePolicy(CAMERA2_BACKPRESSURE_POLICY)
+                    .build();
+            detector.setTimestampOrigin(0);
+        } else {
+            // CameraSource stamps frames with the time elapsed since it was built.
+            long timestampOriginMs = SystemClock.elapsedRealtime();
+            mCameraSource = new CameraSource.Builder(context, detector)
+                    .setFacing(facing)
+                    .setRequestedPreviewSize(profile.previewWidth, profile.previewHeight)
+                    .setRequestedFps(profile.requestedFps)
+                    .setAutoFocusEnabled(true)
+                    .build();
+            detector.setTimestampOrigin(timestampOriginMs);
+        }
     }
 
     /**
@@ -405,39 +483,88 @@ public final class GooglyEyesActivity extends AppCompatActivity {
             dlg.show();
         }
 
-        if (mCameraSource != null) {
-            try {
+        // Abandon a tuning benchmark, so that it does not compete with the live detector.
+        mDetectorTuner.onCameraStarted();
+        try {
+            if (mCamera2Source != null) {
+                mPreview.start(mCamera2Source, mGraphicOverlay);
+            } else if (mCameraSource != null) {
                 mPreview.start(mCameraSource, mGraphicOverlay);
-            } catch (IOException e) {
-                Log.e(TAG, "Unable to start camera source.", e);
-                mCameraSource.release();
-                mCameraSource = null;
             }
+        } catch (IOException e) {
+            Log.e(TAG, "Unable to start camera source.", e);
+            releaseCameraSource();
+        }
+    }
+
+    /**
+     * Releases whichever camera source is in use, together with its detector.
+     */
+    private void releaseCameraSource() {
+        if (mCameraSource != null) {
+            mCameraSource.release();
+            mCameraSource = null;
+        }
+        if (mCamera2Source != null) {
+            mCamera2Source.release();
+            mCamera2Source = null;
         }
     }
 
     @Override
     public boolean onTouchEvent(MotionEvent event) {
         previewImageView.setVisibility(View.GONE);
+        setPreviewBitmap(null);
         return super.onTouchEvent(event);
     }
 
     public void takePictureActionPerformed(View view) {
+        if (mCameraSource == null) {
+            Log.w(TAG, "Taking pictures is only supported with CameraSource.");
+            return;
+        }
+
+        final long captureStartMs = SystemClock.elapsedRealtime();
         mCameraSource.takePicture(new CameraSource.ShutterCallback() {
             @Override
             public void onShutter() {
 //                Toast.makeText(GooglyEyesActivity.this, "onShutter", Toast.LENGTH_SHORT).show();
             }
         }, new CameraSource.PictureCallback() {
-            @RequiresApi(api = Build.VERSION_CODES.HONEYCOMB)
             @Override
             public void onPictureTaken(byte[] bytes) {
-                Bitmap bmp = BitmapFactory.decodeByteArray(bytes, 0, bytes.length);
-                previewImageView.setImageBitmap(bmp);
-                previewImageView.setRotation(90f);
-                previewImageView.setVisibility(View.VISIBLE);
-//                Toast.makeText(GooglyEyesActivity.this, "onPictureTaken", Toast.LENGTH_LONG).show();
+                // The image view is hidden until the picture is shown, but it covers the same area
+                // as the camera preview.
+                mPictureDecoder.decode(bytes, mPreview.getWidth(), mPreview.getHeight(),
+                        new PictureDecoder.Callback() {
+                            @Override
+                            public void onPictureDecoded(Bitmap bitmap) {
+                                setPreviewBitmap(bitmap);
+                                previewImageView.setVisibility(View.VISIBLE);
+                            }
+                        });
+
+                mSnapshotExporter.export(bytes, captureStartMs, new SnapshotExporter.Callback() {
+                    @Override
+                    public void onSnapshotExported(File file) {
+                        Toast.makeText(GooglyEyesActivity.this,
+                                getString(R.string.snapshot_saved, file.getAbsolutePath()),
+                                Toast.LENGTH_LONG).show();
+                    }
+                });
             }
         });
     }
+
+    /**
+     * Shows the bitmap in the preview image view, and hands the previously shown bitmap back to the
+     * picture decoder for reuse.
+     */
+    private void setPreviewBitmap(Bitmap bitmap) {
+        previewImageView.setImageBitmap(bitmap);
+        if (mPreviewBitmap != null) {
+            mPictureDecoder.recycle(mPreviewBitmap);
+        }
+        mPreviewBitmap = bitmap;
+    }
 }
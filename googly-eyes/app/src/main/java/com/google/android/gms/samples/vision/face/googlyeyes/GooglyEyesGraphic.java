@@ -16,27 +16,20 @@
 package com.google.android.gms.samples.vision.face.googlyeyes;
 
 import android.graphics.Bitmap;
-import android.graphics.BitmapFactory;
 import android.graphics.Canvas;
 import android.graphics.Color;
 import android.graphics.Paint;
 import android.graphics.Picture;
 import android.graphics.PointF;
 import android.graphics.Rect;
+import android.graphics.RectF;
 import android.os.Build;
-import android.os.Environment;
 import android.support.annotation.RequiresApi;
 import android.support.v4.content.ContextCompat;
 
 import com.google.android.gms.samples.vision.face.googlyeyes.ui.camera.GraphicOverlay;
 import com.google.android.gms.vision.face.Face;
 
-import java.io.File;
-import java.io.FileNotFoundException;
-import java.io.IOException;
-import java.io.RandomAccessFile;
-import java.nio.MappedByteBuffer;
-import java.nio.channels.FileChannel;
 import java.util.Random;
 
 /**
@@ -45,15 +38,21 @@ import java.util.Random;
 class GooglyEyesGraphic extends GraphicOverlay.Graphic {
     private static final float EYE_RADIUS_PROPORTION = 0.40f;
     private static final float IRIS_RADIUS_PROPORTION = EYE_RADIUS_PROPORTION / 2.0f;
+    private static final float OUTLINE_STROKE_WIDTH = 5.0f;
+
+    // Icons of graphics whose faces are gone, reused for the graphics of new faces.
+    private static final BitmapPool sIconPool = new BitmapPool(2);
 
     private Paint mEyeWhitesPaint;
     private Paint mEyeIrisPaint;
     private Paint mEyeOutlinePaint;
     private Paint mEyeLidPaint;
 
-    // Keep independent physics state for each eye.
+    // Keep independent physics state for each eye.  The physics is only touched by the thread
+    // which draws, so a reset requested by reset() is applied by the next draw.
     private EyePhysics mLeftPhysics = new EyePhysics();
     private EyePhysics mRightPhysics = new EyePhysics();
+    private volatile boolean mPhysicsResetPending;
 
     private volatile PointF mLeftPosition;
     private volatile boolean mLeftOpen;
@@ -66,7 +65,9 @@ class GooglyEyesGraphic extends GraphicOverlay.Graphic {
     private float leftOpenScore;
     private float rightOpenScore;
     private GraphicOverlay overlay;
-    private Bitmap icon;
+    // Released from the detector thread, possibly while a last frame is still being drawn.
+    private volatile Bitmap icon;
+    private final RectF mIconRect = new RectF();
 
     //==============================================================================================
     // Methods
@@ -75,9 +76,7 @@ class GooglyEyesGraphic extends GraphicOverlay.Graphic {
     GooglyEyesGraphic(GraphicOverlay overlay) {
         super(overlay);
         this.overlay = overlay;
-        icon = BitmapFactory.decodeResource(overlay.getContext().getResources(),
-                R.drawable.eye);
-//        icon = convertToMutable(icon);
+        icon = sIconPool.decodeResource(overlay.getContext().getResources(), R.drawable.eye);
 
         mEyeWhitesPaint = new Paint();
         int color = Color.argb(random.nextInt(255), random.nextInt(255), random.nextInt(255), random.nextInt(50) + 10);
@@ -95,31 +94,90 @@ class GooglyEyesGraphic extends GraphicOverlay.Graphic {
         mEyeOutlinePaint = new Paint();
         mEyeOutlinePaint.setColor(Color.BLACK);
         mEyeOutlinePaint.setStyle(Paint.Style.STROKE);
-        mEyeOutlinePaint.setStrokeWidth(5);
+        mEyeOutlinePaint.setStrokeWidth(OUTLINE_STROKE_WIDTH);
+    }
+
+    /**
+     * Hands the icon back for reuse by the graphic of another face.  Must only be called once the
+     * graphic has been removed from the overlay for good.  A frame which was snapshotted before the
+     * removal may still draw the icon on the rendering thread, so it must never be recycled: the
+     * pool drops the icons it has no room for instead, and a pooled icon is only ever decoded
+     * again from the same resource.
+     */
+    void release() {
+        sIconPool.put(icon);
+        icon = null;
+    }
+
+    /**
+     * Returns the graphic to the state of a newly created one, so that it can be reused for another
+     * face.  The paints and the icon only depend on the context, so they are kept as they are.
+     * Must only be called while the graphic is not part of the overlay.
+     */
+    void reset() {
+        mLeftPosition = null;
+        mLeftOpen = false;
+        mRightPosition = null;
+        mRightOpen = false;
+        leftOpenScore = 0.0f;
+        rightOpenScore = 0.0f;
+        mPhysicsResetPending = true;
     }
 
     /**
      * Updates the eye positions and state from the detection of the most recent frame.  Invalidates
-     * the relevant portions of the overlay to trigger a redraw.
+     * the relevant portions of the overlay to trigger a redraw, unless nothing has changed since the
+     * previous update.
      */
     void updateEyes(PointF leftPosition, boolean leftOpen,
                     PointF rightPosition, boolean rightOpen, Face face) {
+        boolean changed = !samePosition(mLeftPosition, leftPosition) || (mLeftOpen != leftOpen) ||
+                !samePosition(mRightPosition, rightPosition) || (mRightOpen != rightOpen);
+
         mLeftPosition = leftPosition;
         mLeftOpen = leftOpen;
 
         mRightPosition = rightPosition;
         mRightOpen = rightOpen;
 
-        postInvalidate();
-
         leftOpenScore = face.getIsLeftEyeOpenProbability();
         rightOpenScore = face.getIsRightEyeOpenProbability();
+
+        if (changed) {
+            postInvalidate();
+        }
 //        System.out.println("----------------------------------------------------------------------------------------------------------------------------------------------------------------");
 //        System.out.println(face.getIsLeftEyeOpenProbability());
 //        System.out.println(face.getIsRightEyeOpenProbability());
 //        System.out.println("----------------------------------------------------------------------------------------------------------------------------------------------------------------");
     }
 
+    /**
+     * Bounds both eyes, including the outline stroke, in view coordinates.
+     */
+    @Override
+    public boolean getBounds(RectF bounds) {
+        PointF detectLeftPosition = mLeftPosition;
+        PointF detectRightPosition = mRightPosition;
+        if ((detectLeftPosition == null) || (detectRightPosition == null)) {
+            bounds.setEmpty();
+            return true;
+        }
+
+        float leftX = translateX(detectLeftPosition.x);
+        float leftY = translateY(detectLeftPosition.y);
+        float rightX = translateX(detectRightPosition.x);
+        float rightY = translateY(detectRightPosition.y);
+
+        float distance = (float) Math.sqrt(
+                Math.pow(rightX - leftX, 2) + Math.pow(rightY - leftY, 2));
+        float extent = (EYE_RADIUS_PROPORTION * distance) + OUTLINE_STROKE_WIDTH;
+
+        bounds.set(Math.min(leftX, rightX) - extent, Math.min(leftY, rightY) - extent,
+                Math.max(leftX, rightX) + extent, Math.max(leftY, rightY) + extent);
+        return true;
+    }
+
     /**
      * Draws the current eye state to the supplied canvas.  This will draw the eyes at the last
      * reported position from the tracker, and the iris positions according to the physics
@@ -128,6 +186,12 @@ class GooglyEyesGraphic extends GraphicOverlay.Graphic {
     @RequiresApi(api = Build.VERSION_CODES.KITKAT)
     @Override
     public void draw(Canvas canvas) {
+        if (mPhysicsResetPending) {
+            mPhysicsResetPending = false;
+            mLeftPhysics.reset();
+            mRightPhysics.reset();
+        }
+
         PointF detectLeftPosition = mLeftPosition;
         PointF detectRightPosition = mRightPosition;
         if ((detectLeftPosition == null) || (detectRightPosition == null)) {
@@ -157,10 +221,28 @@ class GooglyEyesGraphic extends GraphicOverlay.Graphic {
         drawEye(canvas, rightPosition, eyeRadius, rightIrisPosition, irisRadius, mRightOpen, rightOpenScore);
     }
 
+    /**
+     * Draws eyes at the given positions in canvas coordinates, with the irises at rest in the
+     * center of the eyes, rather than at the tracked positions and iris physics state.  This is
+     * used to burn the eyes into a captured still picture.
+     */
+    void drawStill(Canvas canvas, PointF leftPosition, boolean leftOpen, PointF rightPosition,
+                   boolean rightOpen) {
+        float distance = (float) Math.sqrt(
+                Math.pow(rightPosition.x - leftPosition.x, 2) +
+                        Math.pow(rightPosition.y - leftPosition.y, 2));
+        float eyeRadius = EYE_RADIUS_PROPORTION * distance;
+        float irisRadius = IRIS_RADIUS_PROPORTION * distance;
+
+        drawEye(canvas, leftPosition, eyeRadius, leftPosition, irisRadius, leftOpen,
+                leftOpen ? 1.0f : 0.0f);
+        drawEye(canvas, rightPosition, eyeRadius, rightPosition, irisRadius, rightOpen,
+                rightOpen ? 1.0f : 0.0f);
+    }
+
     /**
      * Draws the eye, either closed or open with the iris in the current position.
      */
-    @RequiresApi(api = Build.VERSION_CODES.KITKAT)
     private void drawEye(Canvas canvas, PointF eyePosition, float eyeRadius,
                          PointF irisPosition, float irisRadius, boolean isOpen, float probablyOpen) {
 
@@ -184,8 +266,16 @@ class GooglyEyesGraphic extends GraphicOverlay.Graphic {
 //
 //            icon.setWidth((int) (eyeRadius * probablyOpen));
 //            icon.setHeight((int) (eyeRadius * probablyOpen));
-            Bitmap img = Bitmap.createScaledBitmap(icon, Integer.valueOf((int) (eyeRadius / 2)),Integer.valueOf((int) (eyeRadius / 2)),false);
-            canvas.drawBitmap(img, eyePosition.x - irisRadius/2, eyePosition.y - irisRadius / 2,mEyeWhitesPaint);
+            // Scale the icon while drawing, rather than allocating a scaled copy for every draw.
+            Bitmap icon = this.icon;
+            if (icon == null) {
+                return;
+            }
+            int size = (int) (eyeRadius / 2);
+            float left = eyePosition.x - irisRadius / 2;
+            float top = eyePosition.y - irisRadius / 2;
+            mIconRect.set(left, top, left + size, top + size);
+            canvas.drawBitmap(icon, null, mIconRect, mEyeWhitesPaint);
 
             canvas.drawCircle(eyePosition.x - irisRadius, eyePosition.y, eyeRadius / 20, mEyeWhitesPaint);
 //            canvas.drawCircle(eyePosition.x - irisRadius / 2, eyePosition.y - eyeRadius * probablyOpen / 10, eyeRadius / 20, mEyeWhitesPaint);
@@ -226,49 +316,10 @@ class GooglyEyesGraphic extends GraphicOverlay.Graphic {
 //        canvas.drawCircle(eyePosition.x, eyePosition.y, eyeRadius, mEyeOutlinePaint);
     }
 
-    public static Bitmap convertToMutable(Bitmap imgIn) {
-        try {
-            //this is the file going to use temporally to save the bytes.
-            // This file will not be a image, it will store the raw image data.
-            File file = new File(Environment.getExternalStorageDirectory() + File.separator + "temp.tmp");
-
-            //Open an RandomAccessFile
-            //Make sure you have added uses-permission android:name="android.permission.WRITE_EXTERNAL_STORAGE"
-            //into AndroidManifest.xml file
-            RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw");
-
-            // get the width and height of the source bitmap.
-            int width = imgIn.getWidth();
-            int height = imgIn.getHeight();
-            Bitmap.Config type = imgIn.getConfig();
-
-            //Copy the byte to the file
-            //Assume source bitmap loaded using options.inPreferredConfig = Config.ARGB_8888;
-            FileChannel channel = randomAccessFile.getChannel();
-            MappedByteBuffer map = channel.map(FileChannel.MapMode.READ_WRITE, 0, imgIn.getRowBytes()*height);
-            imgIn.copyPixelsToBuffer(map);
-            //recycle the source bitmap, this will be no longer used.
-            imgIn.recycle();
-            System.gc();// try to force the bytes from the imgIn to be released
-
-            //Create a new bitmap to load the bitmap again. Probably the memory will be available.
-            imgIn = Bitmap.createBitmap(width, height, type);
-            map.position(0);
-            //load it back from temporary
-            imgIn.copyPixelsFromBuffer(map);
-            //close the temporary file and channel , then delete that also
-            channel.close();
-            randomAccessFile.close();
-
-            // delete the temp file
-            file.delete();
-
-        } catch (FileNotFoundException e) {
-            e.printStackTrace();
-        } catch (IOException e) {
-            e.printStackTrace();
+    private static boolean samePosition(PointF a, PointF b) {
+        if ((a == null) || (b == null)) {
+            return a == b;
         }
-
-        return imgIn;
+        return a.equals(b.x, b.y);
     }
 }
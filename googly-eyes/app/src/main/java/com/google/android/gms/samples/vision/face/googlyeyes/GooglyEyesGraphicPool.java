@@ -0,0 +1,136 @@
+/*
+ * Copyright (C) The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.android.gms.samples.vision.face.googlyeyes;
+
+import android.os.SystemClock;
+import android.util.Log;
+
+import com.google.android.gms.samples.vision.face.googlyeyes.ui.camera.GraphicOverlay;
+
+import java.util.ArrayList;
+
+/**
+ * Recycles the graphics of faces which are gone, so that a new face id does not have to allocate
+ * new paints, physics state and icon.  In crowded scenes, the detector frequently loses and
+ * re-acquires faces under new ids, which would otherwise cause a steady stream of allocations on
+ * the detector thread.<p>
+ *
+ * Retired graphics are reset and kept up to a maximum count; beyond that, they are released.  Once
+ * per second, the number of graphics obtained from the pool (hits) and newly created (misses) is
+ * logged, together with the number of retired graphics which were kept or released.<p>
+ *
+ * Trackers obtain and retire graphics on the detector thread, but the pool may also be cleared on
+ * the UI thread, so all access is synchronized on the instance.
+ */
+class GooglyEyesGraphicPool {
+    private static final String TAG = "GooglyEyesGraphicPool";
+
+    private static final long REPORT_INTERVAL_MS = 1000;
+
+    private final GraphicOverlay mOverlay;
+    private final int mMaxSize;
+    private final ArrayList<GooglyEyesGraphic> mGraphics;
+
+    // Statistics for the current reporting interval.
+    private long mIntervalStartMs = SystemClock.elapsedRealtime();
+    private int mHits;
+    private int mMisses;
+    private int mRecycled;
+    private int mReleased;
+
+    /**
+     * @param overlay the overlay which new graphics are created for
+     * @param maxSize the maximum number of retired graphics kept for reuse
+     */
+    GooglyEyesGraphicPool(GraphicOverlay overlay, int maxSize) {
+        mOverlay = overlay;
+        mMaxSize = maxSize;
+        mGraphics = new ArrayList<>(maxSize);
+    }
+
+    /**
+     * Returns a retired graphic if there is one, or a new graphic otherwise.  The graphic is not
+     * part of the overlay yet.
+     */
+    synchronized GooglyEyesGraphic obtain() {
+        GooglyEyesGraphic graphic;
+        int size = mGraphics.size();
+        if (size > 0) {
+            graphic = mGraphics.remove(size - 1);
+            mHits++;
+        } else {
+            graphic = new GooglyEyesGraphic(mOverlay);
+            mMisses++;
+        }
+        reportIfIntervalElapsed();
+        return graphic;
+    }
+
+    /**
+     * Retires a graphic which has been removed from the overlay, keeping it for reuse if the pool
+     * is not full.
+     */
+    synchronized void recycle(GooglyEyesGraphic graphic) {
+        if (mGraphics.size() < mMaxSize) {
+            graphic.reset();
+            mGraphics.add(graphic);
+            mRecycled++;
+        } else {
+            graphic.release();
+            mReleased++;
+        }
+        reportIfIntervalElapsed();
+    }
+
+    /**
+     * Releases all retired graphics.
+     */
+    synchronized void clear() {
+        for (GooglyEyesGraphic graphic : mGraphics) {
+            graphic.release();
+        }
+        mGraphics.clear();
+    }
+
+    //==============================================================================================
+    // Private
+    //==============================================================================================
+
+    /**
+     * Logs a summary and starts a new interval if the reporting interval has elapsed.  Must be
+     * called while holding the instance lock.
+     */
+    private void reportIfIntervalElapsed() {
+        long nowMs = SystemClock.elapsedRealtime();
+        long elapsedMs = nowMs - mIntervalStartMs;
+        if (elapsedMs < REPORT_INTERVAL_MS) {
+            return;
+        }
+
+        int obtained = mHits + mMisses;
+        Log.d(TAG, String.format(
+                "graphics obtained=%d (hits=%d misses=%d, %.0f%% hits), retired kept=%d "
+                        + "released=%d, pooled=%d",
+                obtained, mHits, mMisses, (obtained == 0) ? 0.0f : (100.0f * mHits) / obtained,
+                mRecycled, mReleased, mGraphics.size()));
+
+        mIntervalStartMs = nowMs;
+        mHits = 0;
+        mMisses = 0;
+        mRecycled = 0;
+        mReleased = 0;
+    }
+}
@@ -23,8 +23,7 @@ import com.google.android.gms.vision.face.Face;
 import com.google.android.gms.vision.face.FaceDetector;
 import com.google.android.gms.vision.face.Landmark;
 
-import java.util.HashMap;
-import java.util.Map;
+import java.util.List;
 
 
 /**
@@ -38,15 +37,36 @@ import java.util.Map;
  * during quick movements due to camera image blurring.
  */
 class GooglyFaceTracker extends Tracker<Face> {
-    private static final float EYE_CLOSED_THRESHOLD = 0.4f;
+    static final float EYE_CLOSED_THRESHOLD = 0.4f;
+
+    // Landmark types are small consecutive integers, from Landmark.BOTTOM_MOUTH (0) to
+    // Landmark.RIGHT_MOUTH (11), so they can index arrays directly.
+    private static final int LANDMARK_TYPE_COUNT = Landmark.RIGHT_MOUTH + 1;
+
+    // Lifecycle states of the tracked face.  The graphic is only part of the overlay while the face
+    // is visible, so the overlay is only touched on transitions into or out of that state.
+    private static final int STATE_NEW = 0;
+    private static final int STATE_VISIBLE = 1;
+    private static final int STATE_MISSING = 2;
+    private static final int STATE_DONE = 3;
 
     private GraphicOverlay mOverlay;
+    private GooglyEyesGraphicPool mGraphicPool;
+    private SampledClassificationDetector mClassifier;
     private GooglyEyesGraphic mEyesGraphic;
+    private int mState = STATE_NEW;
 
     // Record the previously seen proportions of the landmark locations relative to the bounding box
     // of the face.  These proportions can be used to approximate where the landmarks are within the
-    // face bounding box if the eye landmark is missing in a future update.
-    private Map<Integer, PointF> mPreviousProportions = new HashMap<>();
+    // face bounding box if the eye landmark is missing in a future update.  The x and y proportions
+    // of landmark type t are stored at [2 * t] and [2 * t + 1], so that no objects are allocated
+    // per frame.
+    private final float[] mPreviousProportions = new float[2 * LANDMARK_TYPE_COUNT];
+    private final boolean[] mHasPreviousProportion = new boolean[LANDMARK_TYPE_COUNT];
+
+    // Eye landmark positions found in the current update, or null if missing.
+    private PointF mLeftEyeLandmark;
+    private PointF mRightEyeLandmark;
 
     // Similarly, keep track of the previous eye open state so that it can be reused for
     // intermediate frames which lack eye landmarks and corresponding eye state.
@@ -61,8 +81,16 @@ class GooglyFaceTracker extends Tracker<Face> {
     // Methods
     //==============================================================================================
 
-    GooglyFaceTracker(GraphicOverlay overlay) {
+    /**
+     * @param graphicPool supplies the eyes graphic, and takes it back when the face is gone
+     * @param classifier  supplies eye open probabilities for frames on which they were classified,
+     *                    when the faces themselves come from a detector without classification
+     */
+    GooglyFaceTracker(GraphicOverlay overlay, GooglyEyesGraphicPool graphicPool,
+                      SampledClassificationDetector classifier) {
         mOverlay = overlay;
+        mGraphicPool = graphicPool;
+        mClassifier = classifier;
     }
 
     /**
@@ -70,7 +98,14 @@ class GooglyFaceTracker extends Tracker<Face> {
      */
     @Override
     public void onNewItem(int id, Face face) {
-        mEyesGraphic = new GooglyEyesGraphic(mOverlay);
+        if (mState == STATE_VISIBLE) {
+            mOverlay.remove(mEyesGraphic);
+        }
+        if (mEyesGraphic != null) {
+            mGraphicPool.recycle(mEyesGraphic);
+        }
+        mEyesGraphic = mGraphicPool.obtain();
+        mState = STATE_NEW;
     }
 
     /**
@@ -80,14 +115,32 @@ class GooglyFaceTracker extends Tracker<Face> {
      */
     @Override
     public void onUpdate(FaceDetector.Detections<Face> detectionResults, Face face) {
-        mOverlay.add(mEyesGraphic);
+        if (mState != STATE_VISIBLE) {
+            mOverlay.add(mEyesGraphic);
+            mState = STATE_VISIBLE;
+        }
+
+        PointF facePosition = face.getPosition();
+        float faceWidth = face.getWidth();
+        float faceHeight = face.getHeight();
 
-        updatePreviousProportions(face);
+        updatePreviousProportions(face, facePosition, faceWidth, faceHeight);
 
-        PointF leftPosition = getLandmarkPosition(face, Landmark.LEFT_EYE);
-        PointF rightPosition = getLandmarkPosition(face, Landmark.RIGHT_EYE);
+        PointF leftPosition = mLeftEyeLandmark;
+        if (leftPosition == null) {
+            leftPosition = estimateLandmarkPosition(
+                    Landmark.LEFT_EYE, facePosition, faceWidth, faceHeight);
+        }
+        PointF rightPosition = mRightEyeLandmark;
+        if (rightPosition == null) {
+            rightPosition = estimateLandmarkPosition(
+                    Landmark.RIGHT_EYE, facePosition, faceWidth, faceHeight);
+        }
 
         leftOpenScore = face.getIsLeftEyeOpenProbability();
+        if ((leftOpenScore == Face.UNCOMPUTED_PROBABILITY) && (mClassifier != null)) {
+            leftOpenScore = mClassifier.getIsLeftEyeOpenProbability(face.getId());
+        }
         boolean isLeftOpen;
         if (leftOpenScore == Face.UNCOMPUTED_PROBABILITY) {
             isLeftOpen = mPreviousIsLeftOpen;
@@ -97,6 +150,9 @@ class GooglyFaceTracker extends Tracker<Face> {
         }
 
         rightOpenScore = face.getIsRightEyeOpenProbability();
+        if ((rightOpenScore == Face.UNCOMPUTED_PROBABILITY) && (mClassifier != null)) {
+            rightOpenScore = mClassifier.getIsRightEyeOpenProbability(face.getId());
+        }
         boolean isRightOpen;
         if (rightOpenScore == Face.UNCOMPUTED_PROBABILITY) {
             isRightOpen = mPreviousIsRightOpen;
@@ -115,7 +171,10 @@ class GooglyFaceTracker extends Tracker<Face> {
      */
     @Override
     public void onMissing(FaceDetector.Detections<Face> detectionResults) {
-        mOverlay.remove(mEyesGraphic);
+        if (mState == STATE_VISIBLE) {
+            mOverlay.remove(mEyesGraphic);
+        }
+        mState = STATE_MISSING;
     }
 
     /**
@@ -124,40 +183,62 @@ class GooglyFaceTracker extends Tracker<Face> {
      */
     @Override
     public void onDone() {
-        mOverlay.remove(mEyesGraphic);
+        if (mState == STATE_VISIBLE) {
+            mOverlay.remove(mEyesGraphic);
+        }
+        if (mEyesGraphic != null) {
+            mGraphicPool.recycle(mEyesGraphic);
+            mEyesGraphic = null;
+        }
+        mState = STATE_DONE;
     }
 
     //==============================================================================================
     // Private
     //==============================================================================================
 
-    private void updatePreviousProportions(Face face) {
-        for (Landmark landmark : face.getLandmarks()) {
+    /**
+     * Records the proportions of all landmarks relative to the face bounding box, and picks out
+     * the eye landmark positions in the same pass.
+     */
+    private void updatePreviousProportions(Face face, PointF facePosition, float faceWidth,
+                                           float faceHeight) {
+        mLeftEyeLandmark = null;
+        mRightEyeLandmark = null;
+
+        List<Landmark> landmarks = face.getLandmarks();
+        for (int i = 0, size = landmarks.size(); i < size; ++i) {
+            Landmark landmark = landmarks.get(i);
+            int type = landmark.getType();
             PointF position = landmark.getPosition();
-            float xProp = (position.x - face.getPosition().x) / face.getWidth();
-            float yProp = (position.y - face.getPosition().y) / face.getHeight();
-            mPreviousProportions.put(landmark.getType(), new PointF(xProp, yProp));
+
+            if (type == Landmark.LEFT_EYE) {
+                mLeftEyeLandmark = position;
+            } else if (type == Landmark.RIGHT_EYE) {
+                mRightEyeLandmark = position;
+            }
+
+            if ((type < 0) || (type >= LANDMARK_TYPE_COUNT)) {
+                continue;
+            }
+            mPreviousProportions[2 * type] = (position.x - facePosition.x) / faceWidth;
+            mPreviousProportions[2 * type + 1] = (position.y - facePosition.y) / faceHeight;
+            mHasPreviousProportion[type] = true;
         }
     }
 
     /**
-     * Finds a specific landmark position, or approximates the position based on past observations
-     * if it is not present.
+     * Approximates the position of a missing landmark based on past observations, or returns null
+     * if the landmark has never been seen.
      */
-    private PointF getLandmarkPosition(Face face, int landmarkId) {
-        for (Landmark landmark : face.getLandmarks()) {
-            if (landmark.getType() == landmarkId) {
-                return landmark.getPosition();
-            }
-        }
-
-        PointF prop = mPreviousProportions.get(landmarkId);
-        if (prop == null) {
+    private PointF estimateLandmarkPosition(int landmarkType, PointF facePosition, float faceWidth,
+                                            float faceHeight) {
+        if (!mHasPreviousProportion[landmarkType]) {
             return null;
         }
 
-        float x = face.getPosition().x + (prop.x * face.getWidth());
-        float y = face.getPosition().y + (prop.y * face.getHeight());
+        float x = facePosition.x + (mPreviousProportions[2 * landmarkType] * faceWidth);
+        float y = facePosition.y + (mPreviousProportions[2 * landmarkType + 1] * faceHeight);
         return new PointF(x, y);
     }
 
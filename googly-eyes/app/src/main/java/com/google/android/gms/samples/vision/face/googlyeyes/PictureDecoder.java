@@ -0,0 +1,377 @@
+/*
+ * Copyright (C) The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.android.gms.samples.vision.face.googlyeyes;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.Canvas;
+import android.graphics.Matrix;
+import android.graphics.RectF;
+import android.media.ExifInterface;
+import android.os.Build;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Process;
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Decodes captured JPEG pictures for display on a background thread, so that taking a picture does
+ * not block the UI thread for the duration of a full-resolution decode.<p>
+ *
+ * The picture is subsampled while decoding to the smallest power of two reduction which still
+ * covers the target view, and the EXIF orientation is applied to the pixels once, so that the view
+ * itself does not have to be rotated.  Bitmaps which are no longer displayed should be handed back
+ * through {@link #recycle(Bitmap)}; their memory is then reused for the next decode through
+ * {@code inBitmap}, or for the rotated copy.
+ */
+class PictureDecoder {
+    private static final String TAG = "PictureDecoder";
+
+    // The decoded picture and its rotated copy are in use at the same time, and one more bitmap is
+    // typically on screen.
+    private static final int POOL_SIZE = 3;
+
+    /**
+     * Receives decoded pictures on the UI thread.
+     */
+    interface Callback {
+        void onPictureDecoded(Bitmap bitmap);
+    }
+
+    private final BitmapPool mPool = new BitmapPool(POOL_SIZE);
+    private final ExecutorService mExecutor = Executors.newSingleThreadExecutor();
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+
+    // Written on the UI thread, but also read by background threads returning bitmaps.
+    private volatile boolean mReleased;
+
+    //==============================================================================================
+    // Methods
+    //==============================================================================================
+
+    /**
+     * Decodes the JPEG picture on a background thread, for display in a view of the given size, and
+     * delivers the result to the callback on the UI thread.  Does not deliver anything if the
+     * picture cannot be decoded or if the decoder has been released in the meantime.  Called on the
+     * UI thread.
+     */
+    void decode(final byte[] jpeg, final int targetWidth, final int targetHeight,
+                final Callback callback) {
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                final Bitmap bitmap = decodeUpright(jpeg, targetWidth, targetHeight);
+                if (bitmap == null) {
+                    return;
+                }
+
+                mMainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (mReleased) {
+                            bitmap.recycle();
+                        } else {
+                            callback.onPictureDecoded(bitmap);
+                        }
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * Returns a bitmap which was delivered by this decoder and is no longer displayed, so that its
+     * memory can be reused.  May be called from any thread.
+     */
+    void recycle(Bitmap bitmap) {
+        if (mReleased) {
+            bitmap.recycle();
+        } else {
+            mPool.put(bitmap);
+        }
+    }
+
+    /**
+     * Stops the background thread and frees the pooled bitmaps.  Pending decodes are dropped.
+     * Called on the UI thread.
+     */
+    void release() {
+        mReleased = true;
+        mExecutor.shutdownNow();
+        mPool.clear();
+    }
+
+    /**
+     * Decodes the JPEG picture synchronously, subsampled for the given target size and with the EXIF
+     * orientation applied.  Returns null if the picture cannot be decoded.  May be called from any
+     * background thread; the result should be handed back through {@link #recycle(Bitmap)}.
+     */
+    Bitmap decodeUpright(byte[] jpeg, int targetWidth, int targetHeight) {
+        long startMs = SystemClock.elapsedRealtime();
+
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+        BitmapFactory.decodeByteArray(jpeg, 0, jpeg.length, options);
+        if ((options.outWidth <= 0) || (options.outHeight <= 0)) {
+            Log.w(TAG, "Unable to decode picture bounds.");
+            return null;
+        }
+        int width = options.outWidth;
+        int height = options.outHeight;
+
+        // The target size is in display orientation, so compare it against the rotated picture.
+        int orientation = readExifOrientation(jpeg);
+        boolean transposed = isTransposed(orientation);
+        int sampleSize = computeSampleSize(transposed ? height : width,
+                transposed ? width : height, targetWidth, targetHeight);
+
+        options = new BitmapFactory.Options();
+        options.inSampleSize = sampleSize;
+        options.inPreferredConfig = Bitmap.Config.ARGB_8888;
+
+        // Before KitKat, inBitmap only works for a decode of exactly the same size, which excludes
+        // subsampling.
+        if ((Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT) ||
+                ((Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB) && (sampleSize == 1))) {
+            options.inMutable = true;
+            options.inBitmap = mPool.get(divideRoundingUp(width, sampleSize),
+                    divideRoundingUp(height, sampleSize), Bitmap.Config.ARGB_8888);
+        }
+        boolean reused = (options.inBitmap != null);
+
+        Bitmap decoded;
+        try {
+            decoded = BitmapFactory.decodeByteArray(jpeg, 0, jpeg.length, options);
+        } catch (IllegalArgumentException e) {
+            // The pooled bitmap did not fit after all.
+            mPool.put(options.inBitmap);
+            options.inBitmap = null;
+            reused = false;
+            decoded = BitmapFactory.decodeByteArray(jpeg, 0, jpeg.length, options);
+        }
+        if (decoded == null) {
+            Log.w(TAG, "Unable to decode picture.");
+            mPool.put(options.inBitmap);
+            return null;
+        }
+
+        Bitmap result = applyOrientation(decoded, orientation);
+        Log.d(TAG, String.format("Decoded %dx%d picture at 1/%d, orientation %d, reused %b: %dms",
+                width, height, sampleSize, orientation, reused,
+                SystemClock.elapsedRealtime() - startMs));
+        return result;
+    }
+
+    /**
+     * Returns true if the EXIF orientation swaps the width and height of the image.
+     */
+    static boolean isTransposed(int orientation) {
+        return (orientation == ExifInterface.ORIENTATION_TRANSPOSE) ||
+                (orientation == ExifInterface.ORIENTATION_ROTATE_90) ||
+                (orientation == ExifInterface.ORIENTATION_TRANSVERSE) ||
+                (orientation == ExifInterface.ORIENTATION_ROTATE_270);
+    }
+
+    /**
+     * Returns the matrix which maps an image of the given size, as stored, onto its upright version
+     * with the origin at the top left, or null if the image is upright already.
+     */
+    static Matrix getOrientationMatrix(int orientation, int width, int height) {
+        Matrix matrix = new Matrix();
+        switch (orientation) {
+            case ExifInterface.ORIENTATION_FLIP_HORIZONTAL:
+                matrix.setScale(-1, 1);
+                break;
+            case ExifInterface.ORIENTATION_ROTATE_180:
+                matrix.setRotate(180);
+                break;
+            case ExifInterface.ORIENTATION_FLIP_VERTICAL:
+                matrix.setRotate(180);
+                matrix.postScale(-1, 1);
+                break;
+            case ExifInterface.ORIENTATION_TRANSPOSE:
+                matrix.setRotate(90);
+                matrix.postScale(-1, 1);
+                break;
+            case ExifInterface.ORIENTATION_ROTATE_90:
+                matrix.setRotate(90);
+                break;
+            case ExifInterface.ORIENTATION_TRANSVERSE:
+                matrix.setRotate(-90);
+                matrix.postScale(-1, 1);
+                break;
+            case ExifInterface.ORIENTATION_ROTATE_270:
+                matrix.setRotate(-90);
+                break;
+            default:
+                return null;
+        }
+
+        // Move the transformed image back to the origin.
+        RectF bounds = new RectF(0, 0, width, height);
+        matrix.mapRect(bounds);
+        matrix.postTranslate(-bounds.left, -bounds.top);
+        return matrix;
+    }
+
+    //==============================================================================================
+    // Private
+    //==============================================================================================
+
+    /**
+     * Returns the largest power of two by which the picture can be subsampled while still being at
+     * least as large as the target in both dimensions.
+     */
+    private static int computeSampleSize(int width, int height, int targetWidth, int targetHeight) {
+        int sampleSize = 1;
+        if ((targetWidth <= 0) || (targetHeight <= 0)) {
+            return sampleSize;
+        }
+        while ((width / (sampleSize * 2) >= targetWidth) &&
+                (height / (sampleSize * 2) >= targetHeight)) {
+            sampleSize *= 2;
+        }
+        return sampleSize;
+    }
+
+    private static int divideRoundingUp(int value, int divisor) {
+        return (value + divisor - 1) / divisor;
+    }
+
+    /**
+     * Returns an upright copy of the bitmap, drawn into a pooled bitmap if possible, and returns
+     * the source bitmap to the pool.  Returns the bitmap itself if it is upright already.
+     */
+    private Bitmap applyOrientation(Bitmap bitmap, int orientation) {
+        Matrix matrix = getOrientationMatrix(orientation, bitmap.getWidth(), bitmap.getHeight());
+        if (matrix == null) {
+            return bitmap;
+        }
+
+        // Rotations by multiples of 90 degrees cover every destination pixel, so the undefined
+        // contents of a pooled bitmap need not be cleared.
+        boolean transposed = isTransposed(orientation);
+        Bitmap upright = mPool.getOrCreate(
+                transposed ? bitmap.getHeight() : bitmap.getWidth(),
+                transposed ? bitmap.getWidth() : bitmap.getHeight(), Bitmap.Config.ARGB_8888);
+        new Canvas(upright).drawBitmap(bitmap, matrix, null);
+        mPool.put(bitmap);
+        return upright;
+    }
+
+    /**
+     * Reads the orientation tag from the EXIF segment of a JPEG image, without decoding the image
+     * or copying it to a file.  Returns {@link ExifInterface#ORIENTATION_NORMAL} if the image has
+     * no valid orientation tag.
+     */
+    static int readExifOrientation(byte[] jpeg) {
+        if ((jpeg.length < 4) || ((jpeg[0] & 0xFF) != 0xFF) || ((jpeg[1] & 0xFF) != 0xD8)) {
+            return ExifInterface.ORIENTATION_NORMAL;
+        }
+
+        int offset = 2;
+        while (offset + 4 <= jpeg.length) {
+            if ((jpeg[offset] & 0xFF) != 0xFF) {
+                break;
+            }
+            int marker = jpeg[offset + 1] & 0xFF;
+            if (marker == 0xFF) {
+                // Fill byte.
+                offset++;
+                continue;
+            }
+            if ((marker == 0xDA) || (marker == 0xD9)) {
+                // Start of scan or end of image: the metadata segments are over.
+                break;
+            }
+
+            int length = readUnsignedShort(jpeg, offset + 2, false);
+            if ((length < 2) || (offset + 2 + length > jpeg.length)) {
+                break;
+            }
+            if (marker == 0xE1) {
+                int orientation = readTiffOrientation(jpeg, offset + 4, offset + 2 + length);
+                if (orientation != 0) {
+                    return orientation;
+                }
+            }
+            offset += 2 + length;
+        }
+        return ExifInterface.ORIENTATION_NORMAL;
+    }
+
+    /**
+     * Returns the orientation from an APP1 segment payload between start and end, or 0 if the
+     * segment is not EXIF or has no orientation tag in its first IFD.
+     */
+    private static int readTiffOrientation(byte[] data, int start, int end) {
+        // "Exif\0\0", followed by the TIFF header.
+        if ((end - start < 14) || (data[start] != 'E') || (data[start + 1] != 'x') ||
+                (data[start + 2] != 'i') || (data[start + 3] != 'f') ||
+                (data[start + 4] != 0) || (data[start + 5] != 0)) {
+            return 0;
+        }
+        int tiff = start + 6;
+        boolean littleEndian;
+        if ((data[tiff] == 'I') && (data[tiff + 1] == 'I')) {
+            littleEndian = true;
+        } else if ((data[tiff] == 'M') && (data[tiff + 1] == 'M')) {
+            littleEndian = false;
+        } else {
+            return 0;
+        }
+        if (readUnsignedShort(data, tiff + 2, littleEndian) != 42) {
+            return 0;
+        }
+
+        long ifdOffset = readUnsignedInt(data, tiff + 4, littleEndian);
+        if ((ifdOffset < 8) || (tiff + ifdOffset + 2 > end)) {
+            return 0;
+        }
+        int ifd = tiff + (int) ifdOffset;
+        int entryCount = readUnsignedShort(data, ifd, littleEndian);
+        for (int i = 0; i < entryCount; ++i) {
+            int entry = ifd + 2 + (i * 12);
+            if (entry + 12 > end) {
+                break;
+            }
+            if (readUnsignedShort(data, entry, littleEndian) == 0x0112) {
+                int orientation = readUnsignedShort(data, entry + 8, littleEndian);
+                boolean valid = (orientation >= ExifInterface.ORIENTATION_NORMAL) &&
+                        (orientation <= ExifInterface.ORIENTATION_ROTATE_270);
+                return valid ? orientation : 0;
+            }
+        }
+        return 0;
+    }
+
+    private static int readUnsignedShort(byte[] data, int offset, boolean littleEndian) {
+        int b0 = data[offset] & 0xFF;
+        int b1 = data[offset + 1] & 0xFF;
+        return littleEndian ? (b1 << 8) | b0 : (b0 << 8) | b1;
+    }
+
+    private static long readUnsignedInt(byte[] data, int offset, boolean littleEndian) {
+        long high = readUnsignedShort(data, offset + (littleEndian ? 2 : 0), littleEndian);
+        long low = readUnsignedShort(data, offset + (littleEndian ? 0 : 2), littleEndian);
+        return (high << 16) | low;
+    }
+}
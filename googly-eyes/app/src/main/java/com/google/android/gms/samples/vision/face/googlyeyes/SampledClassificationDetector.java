@@ -0,0 +1,151 @@
+/*
+ * Copyright (C) The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.android.gms.samples.vision.face.googlyeyes;
+
+import android.graphics.PointF;
+import android.os.SystemClock;
+import android.util.SparseArray;
+
+import com.google.android.gms.vision.Detector;
+import com.google.android.gms.vision.Frame;
+import com.google.android.gms.vision.face.Face;
+
+/**
+ * Combines a landmarks-only face detector, which runs on every frame, with a classification
+ * detector which only runs often enough to bound how late a blink can be noticed.<p>
+ *
+ * The faces reported to the processor always come from the landmark detector, so that tracking ids
+ * are stable; their eye open probabilities are uncomputed.  On frames where the classification
+ * detector also ran, each classified face is matched to the nearest landmark face, and its eye
+ * open probabilities can be looked up by that face's id through
+ * {@link #getIsLeftEyeOpenProbability(int)} and {@link #getIsRightEyeOpenProbability(int)}.  On
+ * other frames the lookups return {@link Face#UNCOMPUTED_PROBABILITY}, and GooglyFaceTracker keeps
+ * using the previous eye state.<p>
+ *
+ * Detection and the tracker callbacks for a frame run sequentially on the camera source's
+ * processing thread, so the lookups always refer to the frame being processed.
+ */
+class SampledClassificationDetector extends Detector<Face> {
+    private final Detector<Face> mLandmarkDetector;
+    private final Detector<Face> mClassificationDetector;
+    private final long mMaxBlinkLagMs;
+
+    private long mLastClassificationMs;
+
+    // Eye open probabilities of the current frame, keyed by landmark detector face id.  Empty if
+    // classification did not run for the current frame.
+    private final SparseArray<float[]> mEyeOpenProbabilities = new SparseArray<>();
+
+    /**
+     * @param landmarkDetector       detector with landmarks and tracking, but no classification
+     * @param classificationDetector detector with classification enabled
+     * @param maxBlinkLagMs          longest time between two classifications
+     */
+    SampledClassificationDetector(Detector<Face> landmarkDetector,
+                                  Detector<Face> classificationDetector, long maxBlinkLagMs) {
+        mLandmarkDetector = landmarkDetector;
+        mClassificationDetector = classificationDetector;
+        mMaxBlinkLagMs = maxBlinkLagMs;
+    }
+
+    @Override
+    public SparseArray<Face> detect(Frame frame) {
+        SparseArray<Face> faces = mLandmarkDetector.detect(frame);
+        mEyeOpenProbabilities.clear();
+
+        long nowMs = SystemClock.elapsedRealtime();
+        if ((faces.size() > 0) && (nowMs - mLastClassificationMs >= mMaxBlinkLagMs)) {
+            mLastClassificationMs = nowMs;
+            matchClassifications(faces, mClassificationDetector.detect(frame));
+        }
+        return faces;
+    }
+
+    /**
+     * Returns the left eye open probability of the face with the given id, if classification ran
+     * for the current frame, or {@link Face#UNCOMPUTED_PROBABILITY} otherwise.
+     */
+    float getIsLeftEyeOpenProbability(int faceId) {
+        float[] probabilities = mEyeOpenProbabilities.get(faceId);
+        return (probabilities == null) ? Face.UNCOMPUTED_PROBABILITY : probabilities[0];
+    }
+
+    /**
+     * Returns the right eye open probability of the face with the given id, if classification ran
+     * for the current frame, or {@link Face#UNCOMPUTED_PROBABILITY} otherwise.
+     */
+    float getIsRightEyeOpenProbability(int faceId) {
+        float[] probabilities = mEyeOpenProbabilities.get(faceId);
+        return (probabilities == null) ? Face.UNCOMPUTED_PROBABILITY : probabilities[1];
+    }
+
+    @Override
+    public boolean isOperational() {
+        return mLandmarkDetector.isOperational() && mClassificationDetector.isOperational();
+    }
+
+    @Override
+    public boolean setFocus(int id) {
+        return mLandmarkDetector.setFocus(id);
+    }
+
+    @Override
+    public void release() {
+        mLandmarkDetector.release();
+        mClassificationDetector.release();
+        super.release();
+    }
+
+    //==============================================================================================
+    // Private
+    //==============================================================================================
+
+    /**
+     * Assigns the probabilities of each classified face to the landmark face whose center is
+     * closest, provided that the centers are less than half a face width apart.
+     */
+    private void matchClassifications(SparseArray<Face> faces, SparseArray<Face> classified) {
+        for (int i = 0; i < classified.size(); ++i) {
+            Face classifiedFace = classified.valueAt(i);
+            PointF classifiedCenter = center(classifiedFace);
+
+            Face bestFace = null;
+            float bestDistance = classifiedFace.getWidth() / 2;
+            for (int j = 0; j < faces.size(); ++j) {
+                Face face = faces.valueAt(j);
+                PointF faceCenter = center(face);
+                float dx = faceCenter.x - classifiedCenter.x;
+                float dy = faceCenter.y - classifiedCenter.y;
+                float distance = (float) Math.sqrt(dx * dx + dy * dy);
+                if (distance < bestDistance) {
+                    bestDistance = distance;
+                    bestFace = face;
+                }
+            }
+
+            if (bestFace != null) {
+                mEyeOpenProbabilities.put(bestFace.getId(), new float[]{
+                        classifiedFace.getIsLeftEyeOpenProbability(),
+                        classifiedFace.getIsRightEyeOpenProbability()});
+            }
+        }
+    }
+
+    private static PointF center(Face face) {
+        PointF position = face.getPosition();
+        return new PointF(position.x + face.getWidth() / 2, position.y + face.getHeight() / 2);
+    }
+}
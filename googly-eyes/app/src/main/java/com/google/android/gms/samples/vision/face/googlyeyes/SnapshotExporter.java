@@ -0,0 +1,396 @@
+/*
+ * Copyright (C) The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.android.gms.samples.vision.face.googlyeyes;
+
+import android.annotation.TargetApi;
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.BitmapRegionDecoder;
+import android.graphics.Canvas;
+import android.graphics.Matrix;
+import android.graphics.PointF;
+import android.graphics.Rect;
+import android.os.Build;
+import android.os.Environment;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Process;
+import android.os.SystemClock;
+import android.util.Log;
+import android.util.SparseArray;
+
+import com.google.android.gms.samples.vision.face.googlyeyes.ui.camera.GraphicOverlay;
+import com.google.android.gms.vision.Frame;
+import com.google.android.gms.vision.face.Face;
+import com.google.android.gms.vision.face.FaceDetector;
+import com.google.android.gms.vision.face.Landmark;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Exports captured pictures with the googly eyes burned in, on a background thread.<p>
+ *
+ * The face detector runs on a subsampled, upright copy of the picture, since the eye positions do
+ * not need full resolution.  The full resolution picture is then composited from tiles decoded
+ * with a {@link BitmapRegionDecoder}, each drawn through the EXIF orientation straight into the
+ * output bitmap, so that the only full resolution bitmap in memory is the output itself, rather
+ * than a decoded copy, a rotated copy and a mutable copy.  Finally the eyes are drawn on top by
+ * {@link GooglyEyesGraphic}, and the output is encoded as a JPEG file.<p>
+ *
+ * The duration of each stage and the latency from the shutter to the written file are logged.
+ */
+class SnapshotExporter {
+    private static final String TAG = "SnapshotExporter";
+
+    // Faces are detected on a copy of the picture subsampled to about this size.
+    private static final int DETECTION_SIZE = 640;
+
+    private static final int TILE_SIZE = 512;
+    private static final int JPEG_QUALITY = 90;
+
+    /**
+     * Receives the written snapshot files on the UI thread.
+     */
+    interface Callback {
+        void onSnapshotExported(File file);
+    }
+
+    /**
+     * Eye positions of one face, in output picture coordinates.
+     */
+    private static final class StillEyes {
+        final PointF leftPosition;
+        final boolean leftOpen;
+        final PointF rightPosition;
+        final boolean rightOpen;
+
+        StillEyes(PointF leftPosition, boolean leftOpen, PointF rightPosition,
+                  boolean rightOpen) {
+            this.leftPosition = leftPosition;
+            this.leftOpen = leftOpen;
+            this.rightPosition = rightPosition;
+            this.rightOpen = rightOpen;
+        }
+    }
+
+    private final Context mContext;
+    private final GraphicOverlay mOverlay;
+    private final PictureDecoder mDecoder;
+    private final ExecutorService mExecutor = Executors.newSingleThreadExecutor();
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+
+    // Only accessed on the export thread.
+    private FaceDetector mDetector;
+
+    // Only accessed on the UI thread.
+    private boolean mReleased;
+
+    //==============================================================================================
+    // Methods
+    //==============================================================================================
+
+    /**
+     * @param overlay supplies the context for the eye graphics; the graphics are not added to it
+     * @param decoder decodes the subsampled copy used for detection, sharing its bitmap pool
+     */
+    SnapshotExporter(GraphicOverlay overlay, PictureDecoder decoder) {
+        mContext = overlay.getContext().getApplicationContext();
+        mOverlay = overlay;
+        mDecoder = decoder;
+    }
+
+    /**
+     * Composites and writes the JPEG picture on a background thread, and delivers the file to the
+     * callback on the UI thread.  Does not deliver anything if the export fails or if the exporter
+     * has been released in the meantime.  Called on the UI thread.
+     *
+     * @param captureStartMs {@link SystemClock#elapsedRealtime()} when the picture was requested
+     */
+    void export(final byte[] jpeg, final long captureStartMs, final Callback callback) {
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                final File file = exportOnWorker(jpeg, captureStartMs);
+                if (file == null) {
+                    return;
+                }
+
+                mMainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (!mReleased) {
+                            callback.onSnapshotExported(file);
+                        }
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * Releases the face detector once pending exports have finished.  Called on the UI thread.
+     */
+    void release() {
+        mReleased = true;
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                if (mDetector != null) {
+                    mDetector.release();
+                    mDetector = null;
+                }
+            }
+        });
+        mExecutor.shutdown();
+    }
+
+    //==============================================================================================
+    // Private
+    //==============================================================================================
+
+    private File exportOnWorker(byte[] jpeg, long captureStartMs) {
+        long startMs = SystemClock.elapsedRealtime();
+
+        BitmapFactory.Options bounds = new BitmapFactory.Options();
+        bounds.inJustDecodeBounds = true;
+        BitmapFactory.decodeByteArray(jpeg, 0, jpeg.length, bounds);
+        int width = bounds.outWidth;
+        int height = bounds.outHeight;
+        if ((width <= 0) || (height <= 0)) {
+            Log.w(TAG, "Unable to decode picture bounds.");
+            return null;
+        }
+
+        int orientation = PictureDecoder.readExifOrientation(jpeg);
+        boolean transposed = PictureDecoder.isTransposed(orientation);
+        int outputWidth = transposed ? height : width;
+        int outputHeight = transposed ? width : height;
+
+        List<StillEyes> eyes = detectEyes(jpeg, outputWidth);
+        if (eyes == null) {
+            return null;
+        }
+        long detectedMs = SystemClock.elapsedRealtime();
+
+        Bitmap output = null;
+        try {
+            output = Bitmap.createBitmap(outputWidth, outputHeight, Bitmap.Config.ARGB_8888);
+            Canvas canvas = new Canvas(output);
+
+            canvas.save();
+            Matrix orientationMatrix = PictureDecoder.getOrientationMatrix(orientation, width,
+                    height);
+            if (orientationMatrix != null) {
+                canvas.concat(orientationMatrix);
+            }
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.GINGERBREAD_MR1) {
+                drawTiles(canvas, jpeg, width, height);
+            } else {
+                drawWhole(canvas, jpeg);
+            }
+            canvas.restore();
+
+            GooglyEyesGraphic graphic = new GooglyEyesGraphic(mOverlay);
+            for (StillEyes face : eyes) {
+                graphic.drawStill(canvas, face.leftPosition, face.leftOpen, face.rightPosition,
+                        face.rightOpen);
+            }
+            graphic.release();
+            long compositedMs = SystemClock.elapsedRealtime();
+
+            File file = write(output);
+            long writtenMs = SystemClock.elapsedRealtime();
+
+            Log.i(TAG, String.format(
+                    "Exported %dx%d snapshot with %d faces: detect=%dms composite=%dms "
+                            + "encode=%dms, shutter to file=%dms",
+                    outputWidth, outputHeight, eyes.size(), detectedMs - startMs,
+                    compositedMs - detectedMs, writtenMs - compositedMs,
+                    writtenMs - captureStartMs));
+            return file;
+        } catch (IOException e) {
+            Log.e(TAG, "Unable to export snapshot.", e);
+            return null;
+        } catch (OutOfMemoryError e) {
+            Log.e(TAG, "Not enough memory to export a " + outputWidth + "x" + outputHeight
+                    + " snapshot.", e);
+            return null;
+        } finally {
+            if (output != null) {
+                output.recycle();
+            }
+        }
+    }
+
+    /**
+     * Detects the faces on a subsampled upright copy of the picture, and returns their eye
+     * positions scaled to the output picture, or null if the picture cannot be decoded.  Faces for
+     * which an eye was not found are left out, since still pictures have no history to estimate
+     * the eye positions from.
+     */
+    private List<StillEyes> detectEyes(byte[] jpeg, int outputWidth) {
+        Bitmap detectionBitmap = mDecoder.decodeUpright(jpeg, DETECTION_SIZE, DETECTION_SIZE);
+        if (detectionBitmap == null) {
+            return null;
+        }
+
+        if (mDetector == null) {
+            mDetector = new FaceDetector.Builder(mContext)
+                    .setLandmarkType(FaceDetector.ALL_LANDMARKS)
+                    .setClassificationType(FaceDetector.ALL_CLASSIFICATIONS)
+                    .setTrackingEnabled(false)
+                    .setMode(FaceDetector.ACCURATE_MODE)
+                    .build();
+        }
+
+        float scale = outputWidth / (float) detectionBitmap.getWidth();
+        SparseArray<Face> faces =
+                mDetector.detect(new Frame.Builder().setBitmap(detectionBitmap).build());
+        mDecoder.recycle(detectionBitmap);
+
+        List<StillEyes> eyes = new ArrayList<>(faces.size());
+        for (int i = 0; i < faces.size(); ++i) {
+            Face face = faces.valueAt(i);
+            PointF left = null;
+            PointF right = null;
+            for (Landmark landmark : face.getLandmarks()) {
+                if (landmark.getType() == Landmark.LEFT_EYE) {
+                    left = landmark.getPosition();
+                } else if (landmark.getType() == Landmark.RIGHT_EYE) {
+                    right = landmark.getPosition();
+                }
+            }
+            if ((left == null) || (right == null)) {
+                continue;
+            }
+
+            eyes.add(new StillEyes(
+                    new PointF(left.x * scale, left.y * scale),
+                    isOpen(face.getIsLeftEyeOpenProbability()),
+                    new PointF(right.x * scale, right.y * scale),
+                    isOpen(face.getIsRightEyeOpenProbability())));
+        }
+        return eyes;
+    }
+
+    private static boolean isOpen(float probability) {
+        return (probability == Face.UNCOMPUTED_PROBABILITY) ||
+                (probability > GooglyFaceTracker.EYE_CLOSED_THRESHOLD);
+    }
+
+    /**
+     * Draws the picture in tiles, in stored (not upright) coordinates.  A single tile bitmap is
+     * reused for all tiles where the platform supports it.
+     */
+    @TargetApi(Build.VERSION_CODES.GINGERBREAD_MR1)
+    private static void drawTiles(Canvas canvas, byte[] jpeg, int width, int height)
+            throws IOException {
+        BitmapRegionDecoder regionDecoder =
+                BitmapRegionDecoder.newInstance(jpeg, 0, jpeg.length, false);
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inPreferredConfig = Bitmap.Config.ARGB_8888;
+        boolean reuseTile = (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN);
+        if (reuseTile) {
+            options.inMutable = true;
+        }
+
+        Rect region = new Rect();
+        Rect source = new Rect();
+        Bitmap tile = null;
+        try {
+            for (int y = 0; y < height; y += TILE_SIZE) {
+                for (int x = 0; x < width; x += TILE_SIZE) {
+                    region.set(x, y, Math.min(x + TILE_SIZE, width),
+                            Math.min(y + TILE_SIZE, height));
+
+                    Bitmap decoded = decodeRegion(regionDecoder, region, options,
+                            reuseTile ? tile : null);
+                    if (decoded == null) {
+                        throw new IOException("Unable to decode region " + region);
+                    }
+                    if (decoded != tile) {
+                        if (tile != null) {
+                            tile.recycle();
+                        }
+                        tile = decoded;
+                    }
+
+                    // A reused tile may be larger than an edge region.
+                    source.set(0, 0, region.width(), region.height());
+                    canvas.drawBitmap(tile, source, region, null);
+                }
+            }
+        } finally {
+            if (tile != null) {
+                tile.recycle();
+            }
+            regionDecoder.recycle();
+        }
+    }
+
+    @TargetApi(Build.VERSION_CODES.GINGERBREAD_MR1)
+    private static Bitmap decodeRegion(BitmapRegionDecoder regionDecoder, Rect region,
+                                       BitmapFactory.Options options, Bitmap reuse) {
+        options.inBitmap = reuse;
+        try {
+            return regionDecoder.decodeRegion(region, options);
+        } catch (IllegalArgumentException e) {
+            // The tile bitmap cannot hold this region after all.
+            options.inBitmap = null;
+            return regionDecoder.decodeRegion(region, options);
+        }
+    }
+
+    /**
+     * Draws the picture decoded in one piece, for platforms without region decoding.
+     */
+    private static void drawWhole(Canvas canvas, byte[] jpeg) throws IOException {
+        Bitmap decoded = BitmapFactory.decodeByteArray(jpeg, 0, jpeg.length);
+        if (decoded == null) {
+            throw new IOException("Unable to decode picture.");
+        }
+        canvas.drawBitmap(decoded, 0, 0, null);
+        decoded.recycle();
+    }
+
+    private File write(Bitmap output) throws IOException {
+        File directory = mContext.getExternalFilesDir(Environment.DIRECTORY_PICTURES);
+        if (directory == null) {
+            directory = mContext.getFilesDir();
+        }
+        File file = new File(directory, "googly_eyes_" + System.currentTimeMillis() + ".jpg");
+
+        OutputStream stream = new BufferedOutputStream(new FileOutputStream(file));
+        try {
+            if (!output.compress(Bitmap.CompressFormat.JPEG, JPEG_QUALITY, stream)) {
+                throw new IOException("Unable to encode " + file);
+            }
+        } finally {
+            stream.close();
+        }
+        return file;
+    }
+}
@@ -0,0 +1,682 @@
+/*
+ * Copyright (C) The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.android.gms.samples.vision.face.googlyeyes.ui.camera;
+
+import android.annotation.TargetApi;
+import android.content.Context;
+import android.graphics.ImageFormat;
+import android.hardware.camera2.CameraAccessException;
+import android.hardware.camera2.CameraCaptureSession;
+import android.hardware.camera2.CameraCharacteristics;
+import android.hardware.camera2.CameraDevice;
+import android.hardware.camera2.CameraManager;
+import android.hardware.camera2.CaptureRequest;
+import android.hardware.camera2.TotalCaptureResult;
+import android.hardware.camera2.params.StreamConfigurationMap;
+import android.media.Image;
+import android.media.ImageReader;
+import android.os.Build;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.SystemClock;
+import android.util.Log;
+import android.util.Range;
+import android.view.Surface;
+import android.view.SurfaceHolder;
+import android.view.WindowManager;
+
+import com.google.android.gms.common.images.Size;
+import com.google.android.gms.vision.CameraSource;
+import com.google.android.gms.vision.Detector;
+import com.google.android.gms.vision.Frame;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * A {@link FrameSource} built on Camera2, as an alternative to the Play Services
+ * {@link CameraSource}, which uses the deprecated {@code android.hardware.Camera} preview callback
+ * and copies every NV21 frame into a Java array.<p>
+ *
+ * Frames are received from an {@link ImageReader} in {@link ImageFormat#YUV_420_888}.  The face
+ * detector only looks at luminance, so only the Y plane is copied, row by row, into a single
+ * preallocated NV21 buffer whose chroma is constant; the image is then closed immediately so that
+ * the camera gets its buffer back.  Detection runs on a dedicated thread, and the
+ * {@link #BACKPRESSURE_KEEP_LATEST} or {@link #BACKPRESSURE_BLOCK} policy decides what happens to
+ * frames which arrive while the detector is busy.<p>
+ *
+ * Frame ids count every image delivered by the camera, as with CameraSource, so that the detector
+ * can count frames dropped before detection for either source.  Once per second, this source also
+ * logs the captured, delivered and dropped frame rates, and the acquisition latency from the
+ * sensor timestamp to the frame being handed to the detector, where the timestamps allow it.
+ * Frame timestamps are in the {@link SystemClock#elapsedRealtime()} time base: the sensor
+ * timestamp where the camera uses that base, and the time the image was acquired otherwise.
+ */
+@TargetApi(Build.VERSION_CODES.LOLLIPOP)
+@SuppressWarnings("MissingPermission")
+public class Camera2FrameSource implements FrameSource {
+    private static final String TAG = "Camera2FrameSource";
+
+    /**
+     * The detector always gets the most recent frame; frames which arrived while it was busy are
+     * dropped.  This keeps the latency low.
+     */
+    public static final int BACKPRESSURE_KEEP_LATEST = 0;
+
+    /**
+     * The detector gets every frame in order, while up to maxImages frames wait in the image
+     * reader.  When the reader is full, the camera drops frames until the detector catches up.
+     */
+    public static final int BACKPRESSURE_BLOCK = 1;
+
+    private static final long REPORT_INTERVAL_MS = 1000;
+
+    private final Context mContext;
+    private final Detector<?> mDetector;
+    private final int mFacing;
+    private final int mRequestedWidth;
+    private final int mRequestedHeight;
+    private final float mRequestedFps;
+    private final int mMaxImages;
+    private final int mBackpressurePolicy;
+
+    // All of the following camera state is guarded by mCameraLock.  Camera callbacks arrive on
+    // mCameraThread; start and stop are called on the UI thread.
+    private final Object mCameraLock = new Object();
+    private HandlerThread mCameraThread;
+    private Handler mCameraHandler;
+    private CameraDevice mCamera;
+    private CameraCaptureSession mSession;
+    private ImageReader mImageReader;
+    private Surface mPreviewSurface;
+    private FrameProcessor mProcessor;
+    private Thread mProcessingThread;
+
+    private Size mPreviewSize;
+    private Range<Integer> mFpsRange;
+    private int mRotation;
+    private boolean mRealtimeTimestamps;
+
+    //==============================================================================================
+    // Builder
+    //==============================================================================================
+
+    /**
+     * Builder for configuring and creating an associated frame source.
+     */
+    public static class Builder {
+        private final Context mContext;
+        private final Detector<?> mDetector;
+        private int mFacing = CameraSource.CAMERA_FACING_BACK;
+        private int mRequestedWidth = 640;
+        private int mRequestedHeight = 480;
+        private float mRequestedFps = 30.0f;
+        private int mMaxImages = 2;
+        private int mBackpressurePolicy = BACKPRESSURE_KEEP_LATEST;
+
+        public Builder(Context context, Detector<?> detector) {
+            mContext = context;
+            mDetector = detector;
+        }
+
+        /**
+         * Sets {@code CameraSource.CAMERA_FACING_BACK} (the default) or
+         * {@code CameraSource.CAMERA_FACING_FRONT}.
+         */
+        public Builder setFacing(int facing) {
+            mFacing = facing;
+            return this;
+        }
+
+        /**
+         * Sets the preview size to approximate; the closest size the camera supports is used.
+         */
+        public Builder setRequestedPreviewSize(int width, int height) {
+            mRequestedWidth = width;
+            mRequestedHeight = height;
+            return this;
+        }
+
+        public Builder setRequestedFps(float fps) {
+            mRequestedFps = fps;
+            return this;
+        }
+
+        /**
+         * Sets the number of images the image reader can hold at once.  Two is enough for
+         * {@link #BACKPRESSURE_KEEP_LATEST}; with {@link #BACKPRESSURE_BLOCK}, more images absorb
+         * longer detector stalls at the cost of latency and memory.
+         */
+        public Builder setMaxImages(int maxImages) {
+            mMaxImages = Math.max(2, maxImages);
+            return this;
+        }
+
+        /**
+         * Sets {@link #BACKPRESSURE_KEEP_LATEST} (the default) or {@link #BACKPRESSURE_BLOCK}.
+         */
+        public Builder setBackpressurePolicy(int policy) {
+            mBackpressurePolicy = policy;
+            return this;
+        }
+
+        public Camera2FrameSource build() {
+            return new Camera2FrameSource(this);
+        }
+    }
+
+    private Camera2FrameSource(Builder builder) {
+        mContext = builder.mContext.getApplicationContext();
+        mDetector = builder.mDetector;
+        mFacing = builder.mFacing;
+        mRequestedWidth = builder.mRequestedWidth;
+        mRequestedHeight = builder.mRequestedHeight;
+        mRequestedFps = builder.mRequestedFps;
+        mMaxImages = builder.mMaxImages;
+        mBackpressurePolicy = builder.mBackpressurePolicy;
+    }
+
+    //==============================================================================================
+    // FrameSource
+    //==============================================================================================
+
+    /**
+     * Opens the camera asynchronously.  The surface is resized to the chosen preview size right
+     * away, so that it has the size the capture session expects by the time the camera is open.
+     */
+    @Override
+    public void start(SurfaceHolder holder) throws IOException {
+        synchronized (mCameraLock) {
+            if (mCameraThread != null) {
+                return;
+            }
+
+            CameraManager manager =
+                    (CameraManager) mContext.getSystemService(Context.CAMERA_SERVICE);
+            String cameraId;
+            try {
+                cameraId = configure(manager);
+            } catch (CameraAccessException e) {
+                throw new IOException("Unable to access the camera.", e);
+            }
+            if (cameraId == null) {
+                throw new IOException("No camera with the requested facing.");
+            }
+
+            holder.setFixedSize(mPreviewSize.getWidth(), mPreviewSize.getHeight());
+            mPreviewSurface = holder.getSurface();
+
+            mCameraThread = new HandlerThread("Camera2FrameSource");
+            mCameraThread.start();
+            mCameraHandler = new Handler(mCameraThread.getLooper());
+
+            mImageReader = ImageReader.newInstance(mPreviewSize.getWidth(),
+                    mPreviewSize.getHeight(), ImageFormat.YUV_420_888, mMaxImages);
+            mProcessor = new FrameProcessor(mPreviewSize.getWidth(), mPreviewSize.getHeight());
+            mImageReader.setOnImageAvailableListener(mProcessor, mCameraHandler);
+            mProcessingThread = new Thread(mProcessor, "Camera2FrameSource detector");
+            mProcessingThread.start();
+
+            try {
+                manager.openCamera(cameraId, mStateCallback, mCameraHandler);
+            } catch (CameraAccessException e) {
+                stopLocked();
+                throw new IOException("Unable to open the camera.", e);
+            }
+        }
+    }
+
+    @Override
+    public void stop() {
+        synchronized (mCameraLock) {
+            stopLocked();
+        }
+    }
+
+    @Override
+    public void release() {
+        stop();
+        mDetector.release();
+    }
+
+    @Override
+    public Size getPreviewSize() {
+        synchronized (mCameraLock) {
+            return mPreviewSize;
+        }
+    }
+
+    @Override
+    public int getCameraFacing() {
+        return mFacing;
+    }
+
+    //==============================================================================================
+    // Private
+    //==============================================================================================
+
+    /**
+     * Picks the camera, preview size, frame rate range and frame rotation.  Returns the camera id,
+     * or null if there is no camera with the requested facing.  Must be called with the lock held.
+     */
+    private String configure(CameraManager manager) throws CameraAccessException {
+        int lensFacing = (mFacing == CameraSource.CAMERA_FACING_FRONT) ?
+                CameraCharacteristics.LENS_FACING_FRONT : CameraCharacteristics.LENS_FACING_BACK;
+
+        for (String id : manager.getCameraIdList()) {
+            CameraCharacteristics characteristics = manager.getCameraCharacteristics(id);
+            Integer facing = characteristics.get(CameraCharacteristics.LENS_FACING);
+            if ((facing == null) || (facing != lensFacing)) {
+                continue;
+            }
+
+            StreamConfigurationMap map =
+                    characteristics.get(CameraCharacteristics.SCALER_STREAM_CONFIGURATION_MAP);
+            if (map == null) {
+                continue;
+            }
+            mPreviewSize = selectPreviewSize(map);
+            mFpsRange = selectFpsRange(characteristics.get(
+                    CameraCharacteristics.CONTROL_AE_AVAILABLE_TARGET_FPS_RANGES));
+
+            Integer sensorOrientation =
+                    characteristics.get(CameraCharacteristics.SENSOR_ORIENTATION);
+            mRotation = computeRotation((sensorOrientation != null) ? sensorOrientation : 0);
+
+            mRealtimeTimestamps = false;
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.M) {
+                Integer source = characteristics.get(
+                        CameraCharacteristics.SENSOR_INFO_TIMESTAMP_SOURCE);
+                mRealtimeTimestamps = (source != null) &&
+                        (source == CameraCharacteristics.SENSOR_INFO_TIMESTAMP_SOURCE_REALTIME);
+            }
+            return id;
+        }
+        return null;
+    }
+
+    /**
+     * Returns the size supported by both the image reader and the preview surface which is closest
+     * to the requested size.
+     */
+    private Size selectPreviewSize(StreamConfigurationMap map) {
+        android.util.Size[] readerSizes = map.getOutputSizes(ImageFormat.YUV_420_888);
+        android.util.Size[] previewSizes = map.getOutputSizes(SurfaceHolder.class);
+
+        android.util.Size best = null;
+        int bestDiff = Integer.MAX_VALUE;
+        for (android.util.Size size : readerSizes) {
+            if (!Arrays.asList(previewSizes).contains(size)) {
+                continue;
+            }
+            int diff = Math.abs(size.getWidth() - mRequestedWidth) +
+                    Math.abs(size.getHeight() - mRequestedHeight);
+            if (diff < bestDiff) {
+                best = size;
+                bestDiff = diff;
+            }
+        }
+        if (best == null) {
+            best = readerSizes[0];
+        }
+        return new Size(best.getWidth(), best.getHeight());
+    }
+
+    /**
+     * Returns the supported frame rate range whose maximum is closest to the requested rate,
+     * preferring the widest such range so that auto exposure can lower the rate in low light.
+     */
+    private Range<Integer> selectFpsRange(Range<Integer>[] ranges) {
+        if ((ranges == null) || (ranges.length == 0)) {
+            return null;
+        }
+
+        Range<Integer> best = ranges[0];
+        for (Range<Integer> range : ranges) {
+            float diff = Math.abs(range.getUpper() - mRequestedFps);
+            float bestDiff = Math.abs(best.getUpper() - mRequestedFps);
+            if ((diff < bestDiff) ||
+                    ((diff == bestDiff) && (range.getLower() < best.getLower()))) {
+                best = range;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Computes the rotation of the frames relative to the display, as {@link Frame#ROTATION_0}
+     * and so on, in the same way as CameraSource.
+     */
+    private int computeRotation(int sensorOrientation) {
+        WindowManager windowManager =
+                (WindowManager) mContext.getSystemService(Context.WINDOW_SERVICE);
+        int degrees = 0;
+        switch (windowManager.getDefaultDisplay().getRotation()) {
+            case Surface.ROTATION_90:
+                degrees = 90;
+                break;
+            case Surface.ROTATION_180:
+                degrees = 180;
+                break;
+            case Surface.ROTATION_270:
+                degrees = 270;
+                break;
+            default:
+                break;
+        }
+
+        int angle;
+        if (mFacing == CameraSource.CAMERA_FACING_FRONT) {
+            angle = (sensorOrientation + degrees) % 360;
+        } else {
+            angle = (sensorOrientation - degrees + 360) % 360;
+        }
+        return angle / 90;
+    }
+
+    private void stopLocked() {
+        if (mCameraThread == null) {
+            return;
+        }
+
+        if (mSession != null) {
+            mSession.close();
+            mSession = null;
+        }
+        if (mCamera != null) {
+            mCamera.close();
+            mCamera = null;
+        }
+
+        // Stop detection before closing the reader, so that no image is in use when it closes.
+        mProcessor.stop();
+        try {
+            mProcessingThread.join();
+        } catch (InterruptedException e) {
+            Log.d(TAG, "Frame processing thread interrupted on stop.");
+            Thread.currentThread().interrupt();
+        }
+        mProcessingThread = null;
+        mProcessor = null;
+
+        mImageReader.close();
+        mImageReader = null;
+        mPreviewSurface = null;
+
+        mCameraThread.quitSafely();
+        mCameraThread = null;
+        mCameraHandler = null;
+    }
+
+    private final CameraDevice.StateCallback mStateCallback = new CameraDevice.StateCallback() {
+        @Override
+        public void onOpened(CameraDevice camera) {
+            synchronized (mCameraLock) {
+                if (mCameraThread == null) {
+                    // Stopped while opening.
+                    camera.close();
+                    return;
+                }
+                mCamera = camera;
+                try {
+                    camera.createCaptureSession(
+                            Arrays.asList(mPreviewSurface, mImageReader.getSurface()),
+                            mSessionCallback, mCameraHandler);
+                } catch (CameraAccessException e) {
+                    Log.e(TAG, "Unable to create capture session.", e);
+                }
+            }
+        }
+
+        @Override
+        public void onDisconnected(CameraDevice camera) {
+            Log.w(TAG, "Camera disconnected.");
+            closeCamera(camera);
+        }
+
+        @Override
+        public void onError(CameraDevice camera, int error) {
+            Log.e(TAG, "Camera error " + error + ".");
+            closeCamera(camera);
+        }
+
+        private void closeCamera(CameraDevice camera) {
+            synchronized (mCameraLock) {
+                camera.close();
+                if (mCamera == camera) {
+                    mCamera = null;
+                    mSession = null;
+                }
+            }
+        }
+    };
+
+    private final CameraCaptureSession.StateCallback mSessionCallback =
+            new CameraCaptureSession.StateCallback() {
+        @Override
+        public void onConfigured(CameraCaptureSession session) {
+            synchronized (mCameraLock) {
+                if (mCamera == null) {
+                    session.close();
+                    return;
+                }
+                mSession = session;
+                try {
+                    CaptureRequest.Builder request =
+                            mCamera.createCaptureRequest(CameraDevice.TEMPLATE_PREVIEW);
+                    request.addTarget(mPreviewSurface);
+                    request.addTarget(mImageReader.getSurface());
+                    request.set(CaptureRequest.CONTROL_AF_MODE,
+                            CaptureRequest.CONTROL_AF_MODE_CONTINUOUS_VIDEO);
+                    if (mFpsRange != null) {
+                        request.set(CaptureRequest.CONTROL_AE_TARGET_FPS_RANGE, mFpsRange);
+                    }
+                    session.setRepeatingRequest(request.build(), mProcessor, mCameraHandler);
+                } catch (CameraAccessException e) {
+                    Log.e(TAG, "Unable to start the preview.", e);
+                }
+            }
+        }
+
+        @Override
+        public void onConfigureFailed(CameraCaptureSession session) {
+            Log.e(TAG, "Unable to configure the capture session.");
+        }
+    };
+
+    //==============================================================================================
+    // Frame processing
+    //==============================================================================================
+
+    /**
+     * Takes images from the image reader on a dedicated thread and runs the detector on them.  The
+     * camera thread only signals that images are available, so that it never waits for detection.
+     */
+    private class FrameProcessor extends CameraCaptureSession.CaptureCallback
+            implements Runnable, ImageReader.OnImageAvailableListener {
+        private final int mWidth;
+        private final int mHeight;
+
+        // NV21 buffer, reused for every frame.  Only the luminance is ever written.
+        private final ByteBuffer mBuffer;
+
+        // Guarded by the processor's own lock.
+        private boolean mActive = true;
+        private int mPendingImages;
+        private int mImageCount;
+
+        // Statistics for the current reporting interval, also guarded by the processor's lock.
+        private long mIntervalStartMs = SystemClock.elapsedRealtime();
+        private int mCaptured;
+        private int mDelivered;
+        private int mLatencySamples;
+        private long mTotalLatencyNs;
+        private long mMaxLatencyNs;
+
+        FrameProcessor(int width, int height) {
+            mWidth = width;
+            mHeight = height;
+
+            int lumaSize = width * height;
+            mBuffer = ByteBuffer.allocateDirect(lumaSize + (lumaSize / 2));
+            for (int i = lumaSize; i < mBuffer.capacity(); ++i) {
+                mBuffer.put(i, (byte) 128);
+            }
+        }
+
+        void stop() {
+            synchronized (this) {
+                mActive = false;
+                notifyAll();
+            }
+        }
+
+        @Override
+        public void onCaptureCompleted(CameraCaptureSession session, CaptureRequest request,
+                                       TotalCaptureResult result) {
+            synchronized (this) {
+                mCaptured++;
+            }
+        }
+
+        @Override
+        public void onImageAvailable(ImageReader reader) {
+            synchronized (this) {
+                mPendingImages++;
+                mImageCount++;
+                notifyAll();
+            }
+        }
+
+        @Override
+        public void run() {
+            while (true) {
+                int frameId;
+                synchronized (this) {
+                    while (mActive && (mPendingImages == 0)) {
+                        try {
+                            wait();
+                        } catch (InterruptedException e) {
+                            Log.d(TAG, "Frame processing loop terminated.", e);
+                            return;
+                        }
+                    }
+                    if (!mActive) {
+                        return;
+                    }
+
+                    // The latest image is the one after all pending ones, so it gets the id of
+                    // the last signal; skipped images leave a gap in the ids.
+                    if (mBackpressurePolicy == BACKPRESSURE_KEEP_LATEST) {
+                        frameId = mImageCount;
+                        mPendingImages = 0;
+                    } else {
+                        frameId = mImageCount - mPendingImages + 1;
+                        mPendingImages--;
+                    }
+                }
+
+                Image image = (mBackpressurePolicy == BACKPRESSURE_KEEP_LATEST) ?
+                        mImageReader.acquireLatestImage() : mImageReader.acquireNextImage();
+                if (image == null) {
+                    continue;
+                }
+
+                long timestampNs = mRealtimeTimestamps ?
+                        image.getTimestamp() : SystemClock.elapsedRealtimeNanos();
+                try {
+                    copyLuminance(image);
+                } finally {
+                    image.close();
+                }
+
+                long latencyNs = mRealtimeTimestamps ?
+                        SystemClock.elapsedRealtimeNanos() - timestampNs : -1;
+                recordDelivery(latencyNs);
+
+                Frame frame = new Frame.Builder()
+                        .setImageData(mBuffer, mWidth, mHeight, ImageFormat.NV21)
+                        .setId(frameId)
+                        .setTimestampMillis(timestampNs / 1000000)
+                        .setRotation(mRotation)
+                        .build();
+                try {
+                    mDetector.receiveFrame(frame);
+                } catch (Throwable t) {
+                    Log.e(TAG, "Exception thrown from receiver.", t);
+                }
+            }
+        }
+
+        /**
+         * Copies the Y plane into the NV21 buffer, row by row if the plane has row padding.
+         */
+        private void copyLuminance(Image image) {
+            Image.Plane plane = image.getPlanes()[0];
+            ByteBuffer luma = plane.getBuffer();
+            int rowStride = plane.getRowStride();
+
+            mBuffer.clear();
+            if (rowStride == mWidth) {
+                luma.limit(luma.position() + (mWidth * mHeight));
+                mBuffer.put(luma);
+            } else {
+                int start = luma.position();
+                for (int row = 0; row < mHeight; ++row) {
+                    luma.limit(start + (row * rowStride) + mWidth);
+                    luma.position(start + (row * rowStride));
+                    mBuffer.put(luma);
+                }
+            }
+            mBuffer.rewind();
+        }
+
+        private synchronized void recordDelivery(long latencyNs) {
+            mDelivered++;
+            if (latencyNs >= 0) {
+                mLatencySamples++;
+                mTotalLatencyNs += latencyNs;
+                mMaxLatencyNs = Math.max(mMaxLatencyNs, latencyNs);
+            }
+
+            long nowMs = SystemClock.elapsedRealtime();
+            long elapsedMs = nowMs - mIntervalStartMs;
+            if (elapsedMs < REPORT_INTERVAL_MS) {
+                return;
+            }
+
+            float seconds = elapsedMs / 1000.0f;
+            String latency = (mLatencySamples == 0) ? "n/a" : String.format(
+                    "avg=%.1fms max=%.1fms",
+                    (mTotalLatencyNs / (float) mLatencySamples) / 1000000.0f,
+                    mMaxLatencyNs / 1000000.0f);
+            Log.d(TAG, String.format(
+                    "[%s] frames/s captured=%.1f delivered=%.1f dropped=%.1f, "
+                            + "acquisition latency %s",
+                    (mBackpressurePolicy == BACKPRESSURE_KEEP_LATEST) ? "keep latest" : "block",
+                    mCaptured / seconds, mDelivered / seconds,
+                    Math.max(0, mCaptured - mDelivered) / seconds, latency));
+
+            mIntervalStartMs = nowMs;
+            mCaptured = 0;
+            mDelivered = 0;
+            mLatencySamples = 0;
+            mTotalLatencyNs = 0;
+            mMaxLatencyNs = 0;
+        }
+    }
+}
@@ -36,7 +36,7 @@ public class CameraSourcePreview extends ViewGroup {
     private SurfaceView mSurfaceView;
     private boolean mStartRequested;
     private boolean mSurfaceAvailable;
-    private CameraSource mCameraSource;
+    private FrameSource mCameraSource;
 
     private GraphicOverlay mOverlay;
 
@@ -52,11 +52,20 @@ public class CameraSourcePreview extends ViewGroup {
     }
 
     public void start(CameraSource cameraSource) throws IOException {
-        if (cameraSource == null) {
+        start((cameraSource != null) ? new PlayServicesFrameSource(cameraSource) : null);
+    }
+
+    public void start(CameraSource cameraSource, GraphicOverlay overlay) throws IOException {
+        mOverlay = overlay;
+        start(cameraSource);
+    }
+
+    public void start(FrameSource frameSource) throws IOException {
+        if (frameSource == null) {
             stop();
         }
 
-        mCameraSource = cameraSource;
+        mCameraSource = frameSource;
 
         if (mCameraSource != null) {
             mStartRequested = true;
@@ -64,9 +73,9 @@ public class CameraSourcePreview extends ViewGroup {
         }
     }
 
-    public void start(CameraSource cameraSource, GraphicOverlay overlay) throws IOException {
+    public void start(FrameSource frameSource, GraphicOverlay overlay) throws IOException {
         mOverlay = overlay;
-        start(cameraSource);
+        start(frameSource);
     }
 
     public void stop() {
@@ -102,6 +111,42 @@ public class CameraSourcePreview extends ViewGroup {
         }
     }
 
+    /**
+     * Adapts the Play Services camera source, which cannot implement {@link FrameSource} itself.
+     */
+    private static class PlayServicesFrameSource implements FrameSource {
+        private final CameraSource mCameraSource;
+
+        PlayServicesFrameSource(CameraSource cameraSource) {
+            mCameraSource = cameraSource;
+        }
+
+        @Override
+        public void start(SurfaceHolder holder) throws IOException {
+            mCameraSource.start(holder);
+        }
+
+        @Override
+        public void stop() {
+            mCameraSource.stop();
+        }
+
+        @Override
+        public void release() {
+            mCameraSource.release();
+        }
+
+        @Override
+        public Size getPreviewSize() {
+            return mCameraSource.getPreviewSize();
+        }
+
+        @Override
+        public int getCameraFacing() {
+            return mCameraSource.getCameraFacing();
+        }
+    }
+
     private class SurfaceCallback implements SurfaceHolder.Callback {
         @Override
         public void surfaceCreated(SurfaceHolder surface) {
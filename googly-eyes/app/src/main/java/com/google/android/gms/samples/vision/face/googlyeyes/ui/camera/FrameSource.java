@@ -0,0 +1,56 @@
+/*
+ * Copyright (C) The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.android.gms.samples.vision.face.googlyeyes.ui.camera;
+
+import android.view.SurfaceHolder;
+
+import com.google.android.gms.common.images.Size;
+
+import java.io.IOException;
+
+/**
+ * A camera which shows its preview on a surface and feeds its frames to a detector, as displayed by
+ * {@link CameraSourcePreview}.  This is implemented on top of the Play Services
+ * {@link com.google.android.gms.vision.CameraSource}, or on top of Camera2 by
+ * {@link Camera2FrameSource}.
+ */
+public interface FrameSource {
+    /**
+     * Opens the camera and starts sending preview frames to the surface and to the detector.
+     */
+    void start(SurfaceHolder holder) throws IOException;
+
+    /**
+     * Stops the preview and the frames to the detector, and closes the camera.  The source can be
+     * started again.
+     */
+    void stop();
+
+    /**
+     * Stops the source and releases the detector.
+     */
+    void release();
+
+    /**
+     * Returns the preview size chosen when the source was started, or null before that.
+     */
+    Size getPreviewSize();
+
+    /**
+     * Returns {@code CameraSource.CAMERA_FACING_BACK} or {@code CameraSource.CAMERA_FACING_FRONT}.
+     */
+    int getCameraFacing();
+}
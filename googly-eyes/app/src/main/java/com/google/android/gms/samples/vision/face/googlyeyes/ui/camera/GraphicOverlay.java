@@ -17,13 +17,20 @@ package com.google.android.gms.samples.vision.face.googlyeyes.ui.camera;
 
 import android.content.Context;
 import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.PorterDuff;
+import android.graphics.Rect;
+import android.graphics.RectF;
+import android.os.Build;
+import android.support.v4.view.ViewCompat;
 import android.util.AttributeSet;
+import android.view.SurfaceHolder;
 import android.view.View;
+import android.view.ViewGroup;
 
 import com.google.android.gms.vision.CameraSource;
 
-import java.util.HashSet;
-import java.util.Set;
+import java.util.Arrays;
 
 /**
  * A view which renders a series of custom graphics to be overlayed on top of an associated preview
@@ -42,15 +49,90 @@ import java.util.Set;
  * <li>{@link Graphic#translateX(float)} and {@link Graphic#translateY(float)} adjust the coordinate
  * from the preview's coordinate system to the view coordinate system.</li>
  * </ol>
+ *
+ * Graphics which can bound their drawing should override {@link Graphic#getBounds(RectF)}.  The
+ * overlay then only invalidates the union of the previous and new bounds of the graphics that
+ * changed, and coalesces all invalidations requested within one frame into a single invalidate on
+ * the next animation frame.<p>
+ *
+ * The set of graphics is kept as an immutable snapshot array which is replaced on every add or
+ * remove (copy-on-write).  Drawing iterates the current snapshot without taking the overlay lock,
+ * so a slow draw never blocks detector threads that add or remove graphics, and vice versa.<p>
+ *
+ * By default the graphics are drawn in {@link #onDraw(Canvas)} on the UI thread.  On API 16 and
+ * above, {@link #setRenderThreadEnabled(boolean)} switches to drawing them into a transparent
+ * surface from a dedicated rendering thread (see {@link OverlayRenderer}), so that overlay drawing
+ * no longer competes with layout and input handling on the UI thread.
  */
-public class GraphicOverlay extends View {
+public class GraphicOverlay extends ViewGroup {
+    private static final Graphic[] NO_GRAPHICS = new Graphic[0];
+
     private final Object mLock = new Object();
     private int mPreviewWidth;
-    private float mWidthScaleFactor = 1.0f;
+    private volatile float mWidthScaleFactor = 1.0f;
     private int mPreviewHeight;
-    private float mHeightScaleFactor = 1.0f;
-    private int mFacing = CameraSource.CAMERA_FACING_BACK;
-    private Set<Graphic> mGraphics = new HashSet<>();
+    private volatile float mHeightScaleFactor = 1.0f;
+    private volatile int mFacing = CameraSource.CAMERA_FACING_BACK;
+
+    // Snapshot of the current graphics.  The array is never modified once published; writers
+    // replace it while holding mLock, and onDraw reads whichever snapshot is current.
+    private volatile Graphic[] mGraphics = NO_GRAPHICS;
+
+    // Dirty region accumulated from graphic changes since the last posted invalidate, in view
+    // coordinates.  A full invalidate is requested instead if any changed graphic is unbounded.
+    private final Rect mDirtyRect = new Rect();
+    private final Rect mTmpRect = new Rect();
+    private final RectF mTmpBounds = new RectF();
+    private boolean mFullInvalidatePending;
+    private boolean mInvalidatePosted;
+
+    // Time at which the pending invalidate was first requested, used to measure overlay latency.
+    private long mDirtySinceNs;
+
+    // The region taken for the current invalidate on the UI thread, and for the current frame on
+    // the rendering thread.  Each is only accessed by its own thread.
+    private final DirtyRegion mPostRegion = new DirtyRegion();
+    private final DirtyRegion mRenderRegion = new DirtyRegion();
+
+    // Non-null while graphics are drawn on the rendering thread instead of in onDraw.
+    private volatile OverlayRenderer mRenderer;
+
+    // Cumulative counts of add/remove calls which changed the graphics, and of those which were
+    // ignored because the graphic was already present (add) or already absent (remove).
+    private long mMutationCount;
+    private long mRedundantMutationCount;
+
+    private final OverlayMetrics mMetrics = new OverlayMetrics();
+
+    private final Runnable mInvalidateRunnable = new Runnable() {
+        @Override
+        public void run() {
+            if (mRenderer != null) {
+                return;
+            }
+
+            takeDirtyRegion(mPostRegion);
+            if (mPostRegion.full) {
+                mMetrics.onInvalidatePosted();
+                invalidate();
+            } else if (!mPostRegion.rect.isEmpty()) {
+                mMetrics.onInvalidatePosted();
+                invalidate(mPostRegion.rect);
+            } else {
+                mMetrics.onInvalidateSkipped();
+            }
+        }
+    };
+
+    /**
+     * A dirty region taken from the overlay for drawing, with the time it was first requested.
+     */
+    private static class DirtyRegion {
+        final Rect rect = new Rect();
+        // true if the whole overlay must be redrawn, in which case rect is not meaningful
+        boolean full;
+        long requestedNs;
+    }
 
     /**
      * Base class for a custom graphics object to be rendered within the graphic overlay.  Subclass
@@ -60,6 +142,11 @@ public class GraphicOverlay extends View {
     public static abstract class Graphic {
         private GraphicOverlay mOverlay;
 
+        // The bounds reported when this graphic was last invalidated, which is the area that has
+        // to be cleared when it moves or is removed.  Guarded by the overlay lock.
+        private final RectF mDrawnBounds = new RectF();
+        private boolean mHasDrawnBounds;
+
         public Graphic(GraphicOverlay overlay) {
             mOverlay = overlay;
         }
@@ -78,6 +165,18 @@ public class GraphicOverlay extends View {
          */
         public abstract void draw(Canvas canvas);
 
+        /**
+         * Computes the area, in view coordinates, that the next call to {@link #draw(Canvas)}
+         * will touch.  The default implementation returns false, meaning that the graphic cannot
+         * bound its drawing and the whole overlay is invalidated whenever it changes.
+         *
+         * @param bounds receives the drawing bounds if the method returns true
+         * @return true if the bounds were computed
+         */
+        public boolean getBounds(RectF bounds) {
+            return false;
+        }
+
         /**
          * Adjusts a horizontal value of the supplied value from the preview scale to the view
          * scale.
@@ -113,13 +212,46 @@ public class GraphicOverlay extends View {
             return scaleY(y);
         }
 
+        /**
+         * Requests a redraw of the area covered by this graphic, both where it was last drawn and
+         * where it will be drawn next.  Graphics should only call this when something changed.
+         */
         public void postInvalidate() {
-            mOverlay.postInvalidate();
+            mOverlay.invalidateGraphic(this);
         }
     }
 
     public GraphicOverlay(Context context, AttributeSet attrs) {
         super(context, attrs);
+        setWillNotDraw(false);
+    }
+
+    /**
+     * Selects whether graphics are drawn from a dedicated rendering thread into a surface, or in
+     * {@link #onDraw(Canvas)} on the UI thread.  The rendering thread requires API 16; on older
+     * devices this has no effect.  Must be called on the UI thread.
+     */
+    public void setRenderThreadEnabled(boolean enabled) {
+        enabled &= (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN);
+        if (enabled == (mRenderer != null)) {
+            return;
+        }
+
+        if (enabled) {
+            OverlayRenderer renderer = new OverlayRenderer(this, getContext());
+            addView(renderer.getView());
+            mRenderer = renderer;
+            if (ViewCompat.isAttachedToWindow(this)) {
+                renderer.start();
+            }
+        } else {
+            OverlayRenderer renderer = mRenderer;
+            mRenderer = null;
+            renderer.stop();
+            removeView(renderer.getView());
+        }
+        mMetrics.setRenderThread(enabled);
+        invalidateAll();
     }
 
     /**
@@ -127,29 +259,73 @@ public class GraphicOverlay extends View {
      */
     public void clear() {
         synchronized (mLock) {
-            mGraphics.clear();
+            for (Graphic graphic : mGraphics) {
+                graphic.mHasDrawnBounds = false;
+            }
+            mGraphics = NO_GRAPHICS;
+            mFullInvalidatePending = true;
+            scheduleInvalidateLocked();
         }
-        postInvalidate();
     }
 
     /**
-     * Adds a graphic to the overlay.
+     * Adds a graphic to the overlay.  Adding a graphic which is already present is a no-op.
      */
     public void add(Graphic graphic) {
         synchronized (mLock) {
-            mGraphics.add(graphic);
+            Graphic[] graphics = mGraphics;
+            if (indexOf(graphics, graphic) >= 0) {
+                recordMutationLocked(true);
+                return;
+            }
+
+            Graphic[] newGraphics = Arrays.copyOf(graphics, graphics.length + 1);
+            newGraphics[graphics.length] = graphic;
+            mGraphics = newGraphics;
+            recordMutationLocked(false);
+            markDirtyLocked(graphic, true);
         }
-        postInvalidate();
     }
 
     /**
-     * Removes a graphic from the overlay.
+     * Removes a graphic from the overlay.  Removing a graphic which is not present is a no-op.
      */
     public void remove(Graphic graphic) {
         synchronized (mLock) {
-            mGraphics.remove(graphic);
+            Graphic[] graphics = mGraphics;
+            int index = indexOf(graphics, graphic);
+            if (index < 0) {
+                recordMutationLocked(true);
+                return;
+            }
+
+            Graphic[] newGraphics = new Graphic[graphics.length - 1];
+            System.arraycopy(graphics, 0, newGraphics, 0, index);
+            System.arraycopy(graphics, index + 1, newGraphics, index, newGraphics.length - index);
+            mGraphics = newGraphics;
+            recordMutationLocked(false);
+            markDirtyLocked(graphic, false);
+        }
+    }
+
+    /**
+     * Returns the number of add/remove calls which changed the set of graphics.
+     */
+    public long getMutationCount() {
+        synchronized (mLock) {
+            return mMutationCount;
+        }
+    }
+
+    /**
+     * Returns the number of redundant add/remove calls, i.e. adding a graphic which was already
+     * present or removing one which was not.  These are ignored without copying the graphics or
+     * invalidating the view.
+     */
+    public long getRedundantMutationCount() {
+        synchronized (mLock) {
+            return mRedundantMutationCount;
         }
-        postInvalidate();
     }
 
     /**
@@ -161,8 +337,195 @@ public class GraphicOverlay extends View {
             mPreviewWidth = previewWidth;
             mPreviewHeight = previewHeight;
             mFacing = facing;
+            mFullInvalidatePending = true;
+            scheduleInvalidateLocked();
+        }
+    }
+
+    /**
+     * Requests a full redraw of the overlay on the next frame.
+     */
+    void invalidateAll() {
+        synchronized (mLock) {
+            mFullInvalidatePending = true;
+            scheduleInvalidateLocked();
+        }
+    }
+
+    /**
+     * Invalidates the previous and current bounds of a graphic that changed.  Changes to graphics
+     * which are not currently part of the overlay are ignored.
+     */
+    void invalidateGraphic(Graphic graphic) {
+        synchronized (mLock) {
+            if (indexOf(mGraphics, graphic) >= 0) {
+                markDirtyLocked(graphic, true);
+            }
+        }
+    }
+
+    /**
+     * Adds the area last covered by the graphic to the dirty region and, if the graphic is still
+     * visible, the area it will cover next.
+     */
+    private void markDirtyLocked(Graphic graphic, boolean visible) {
+        mMetrics.onInvalidateRequested();
+
+        if (graphic.mHasDrawnBounds) {
+            graphic.mDrawnBounds.roundOut(mTmpRect);
+            mDirtyRect.union(mTmpRect);
+            graphic.mHasDrawnBounds = false;
+        }
+
+        if (visible) {
+            if (graphic.getBounds(mTmpBounds)) {
+                mTmpBounds.roundOut(mTmpRect);
+                mDirtyRect.union(mTmpRect);
+                graphic.mDrawnBounds.set(mTmpBounds);
+                graphic.mHasDrawnBounds = true;
+            } else {
+                mFullInvalidatePending = true;
+            }
+        }
+
+        scheduleInvalidateLocked();
+    }
+
+    private void recordMutationLocked(boolean redundant) {
+        if (redundant) {
+            mRedundantMutationCount++;
+        } else {
+            mMutationCount++;
+        }
+        mMetrics.onMutation(redundant);
+    }
+
+    /**
+     * Returns the position of the graphic within the snapshot, or -1 if it is not present.  The
+     * number of graphics is small (one per tracked face), so a linear scan is sufficient.
+     */
+    private static int indexOf(Graphic[] graphics, Graphic graphic) {
+        for (int i = 0; i < graphics.length; ++i) {
+            if (graphics[i] == graphic) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Posts a single invalidate for the next animation frame, so that any number of changes made
+     * before then are coalesced into one redraw.
+     */
+    private void scheduleInvalidateLocked() {
+        if (!mInvalidatePosted) {
+            mInvalidatePosted = true;
+            mDirtySinceNs = System.nanoTime();
+
+            OverlayRenderer renderer = mRenderer;
+            if (renderer != null) {
+                renderer.requestFrame();
+            } else {
+                ViewCompat.postOnAnimation(this, mInvalidateRunnable);
+            }
+        }
+    }
+
+    /**
+     * Moves the accumulated dirty region and its request time into the supplied region and allows
+     * the next change to schedule another frame.
+     */
+    private void takeDirtyRegion(DirtyRegion outRegion) {
+        synchronized (mLock) {
+            outRegion.full = mFullInvalidatePending;
+            outRegion.rect.set(mDirtyRect);
+            outRegion.requestedNs = mDirtySinceNs;
+
+            mInvalidatePosted = false;
+            mFullInvalidatePending = false;
+            mDirtyRect.setEmpty();
+        }
+    }
+
+    /**
+     * Merges a region which could not be drawn back into the pending dirty region, so that it is
+     * drawn with the next frame.
+     */
+    private void restoreDirtyRegion(DirtyRegion region) {
+        synchronized (mLock) {
+            if (region.full) {
+                mFullInvalidatePending = true;
+            } else {
+                mDirtyRect.union(region.rect);
+            }
+        }
+    }
+
+    /**
+     * Renders the pending dirty region into the surface.  Called on the rendering thread.
+     */
+    void renderFrame(SurfaceHolder holder) {
+        takeDirtyRegion(mRenderRegion);
+        if (!mRenderRegion.full && mRenderRegion.rect.isEmpty()) {
+            mMetrics.onInvalidateSkipped();
+            return;
+        }
+
+        long startNs = System.nanoTime();
+
+        // Locking a dirty rect preserves the rest of the surface, and clips drawing to the
+        // (possibly enlarged) rect that is returned.
+        Canvas canvas = mRenderRegion.full ? holder.lockCanvas()
+                : holder.lockCanvas(mRenderRegion.rect);
+        if (canvas == null) {
+            // The surface is not ready yet.  Keep the region; surfaceChanged or the next change
+            // schedules the frame which draws it.
+            restoreDirtyRegion(mRenderRegion);
+            return;
+        }
+        mMetrics.onInvalidatePosted();
+        try {
+            canvas.drawColor(Color.TRANSPARENT, PorterDuff.Mode.CLEAR);
+            drawGraphics(canvas);
+        } finally {
+            holder.unlockCanvasAndPost(canvas);
+        }
+
+        long endNs = System.nanoTime();
+        mMetrics.onDraw(endNs - startNs, endNs - mRenderRegion.requestedNs);
+    }
+
+    @Override
+    protected void onAttachedToWindow() {
+        super.onAttachedToWindow();
+        OverlayRenderer renderer = mRenderer;
+        if (renderer != null) {
+            renderer.start();
+        }
+    }
+
+    @Override
+    protected void onDetachedFromWindow() {
+        OverlayRenderer renderer = mRenderer;
+        if (renderer != null) {
+            renderer.stop();
+        }
+        super.onDetachedFromWindow();
+    }
+
+    /**
+     * Sizes the rendering surface, if any, to fill the overlay.
+     */
+    @Override
+    protected void onLayout(boolean changed, int left, int top, int right, int bottom) {
+        int width = right - left;
+        int height = bottom - top;
+        for (int i = 0; i < getChildCount(); ++i) {
+            View child = getChildAt(i);
+            child.measure(MeasureSpec.makeMeasureSpec(width, MeasureSpec.EXACTLY),
+                    MeasureSpec.makeMeasureSpec(height, MeasureSpec.EXACTLY));
+            child.layout(0, 0, width, height);
         }
-        postInvalidate();
     }
 
     /**
@@ -171,16 +534,36 @@ public class GraphicOverlay extends View {
     @Override
     protected void onDraw(Canvas canvas) {
         super.onDraw(canvas);
+        if (mRenderer != null) {
+            return;
+        }
 
+        long startNs = System.nanoTime();
+        long requestedNs = mPostRegion.requestedNs;
+        mPostRegion.requestedNs = 0;
+
+        drawGraphics(canvas);
+
+        // Draws which were not triggered by a graphic change (e.g., layout) have no latency.
+        long endNs = System.nanoTime();
+        mMetrics.onDraw(endNs - startNs, (requestedNs == 0) ? -1 : endNs - requestedNs);
+    }
+
+    /**
+     * Draws all graphics of the current snapshot onto the canvas.
+     */
+    private void drawGraphics(Canvas canvas) {
         synchronized (mLock) {
             if ((mPreviewWidth != 0) && (mPreviewHeight != 0)) {
                 mWidthScaleFactor = (float) canvas.getWidth() / (float) mPreviewWidth;
                 mHeightScaleFactor = (float) canvas.getHeight() / (float) mPreviewHeight;
             }
+        }
 
-            for (Graphic graphic : mGraphics) {
-                graphic.draw(canvas);
-            }
+        // Draw from the current snapshot without holding the lock, so that trackers can publish
+        // changes while the draw is in progress.  Those changes schedule another frame.
+        for (Graphic graphic : mGraphics) {
+            graphic.draw(canvas);
         }
     }
 }
@@ -0,0 +1,155 @@
+/*
+ * Copyright (C) The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.android.gms.samples.vision.face.googlyeyes.ui.camera;
+
+import android.os.SystemClock;
+import android.util.Log;
+
+/**
+ * Collects per-second rendering statistics for a {@link GraphicOverlay}: how many invalidations
+ * were requested by graphics, how many of those were actually posted to the view after coalescing,
+ * how many add/remove calls were redundant, how long the draw passes took, and the overlay latency
+ * from the first change in a frame until that change was drawn.  A summary is logged once per
+ * reporting interval, tagged with the thread that draws the graphics so that the UI thread and
+ * rendering thread modes can be compared.<p>
+ *
+ * Counters are updated from the detector thread (invalidation requests) and from the UI or
+ * rendering thread (posts and draws), so all access is synchronized on the instance.
+ */
+class OverlayMetrics {
+    private static final String TAG = "OverlayMetrics";
+
+    private static final long REPORT_INTERVAL_MS = 1000;
+
+    private long mIntervalStartMs = SystemClock.elapsedRealtime();
+
+    private int mRequestedInvalidations;
+    private int mPostedInvalidations;
+    private int mSkippedInvalidations;
+
+    private int mMutations;
+    private int mRedundantMutations;
+
+    private int mDraws;
+    private long mTotalDrawNs;
+    private long mMaxDrawNs;
+
+    private int mLatencySamples;
+    private long mTotalLatencyNs;
+    private long mMaxLatencyNs;
+
+    private boolean mRenderThread;
+
+    /**
+     * Records that a graphic asked for the overlay to be redrawn.
+     */
+    synchronized void onInvalidateRequested() {
+        mRequestedInvalidations++;
+        reportIfIntervalElapsed();
+    }
+
+    /**
+     * Records a coalesced invalidation which was actually delivered to the view.
+     */
+    synchronized void onInvalidatePosted() {
+        mPostedInvalidations++;
+        reportIfIntervalElapsed();
+    }
+
+    /**
+     * Records a coalesced invalidation which was dropped because the dirty region was empty.
+     */
+    synchronized void onInvalidateSkipped() {
+        mSkippedInvalidations++;
+        reportIfIntervalElapsed();
+    }
+
+    /**
+     * Records an add or remove call, which was either applied or ignored as redundant.
+     */
+    synchronized void onMutation(boolean redundant) {
+        if (redundant) {
+            mRedundantMutations++;
+        } else {
+            mMutations++;
+        }
+        reportIfIntervalElapsed();
+    }
+
+    /**
+     * Records whether subsequent draws happen on the rendering thread rather than the UI thread.
+     */
+    synchronized void setRenderThread(boolean renderThread) {
+        mRenderThread = renderThread;
+    }
+
+    /**
+     * Records the duration of a single overlay draw pass, and the time since the change which it
+     * draws was first requested, or a negative latency if the draw was not caused by a change.
+     */
+    synchronized void onDraw(long drawNs, long latencyNs) {
+        mDraws++;
+        mTotalDrawNs += drawNs;
+        mMaxDrawNs = Math.max(mMaxDrawNs, drawNs);
+
+        if (latencyNs >= 0) {
+            mLatencySamples++;
+            mTotalLatencyNs += latencyNs;
+            mMaxLatencyNs = Math.max(mMaxLatencyNs, latencyNs);
+        }
+        reportIfIntervalElapsed();
+    }
+
+    /**
+     * Logs a summary and starts a new interval if the reporting interval has elapsed.  Must be
+     * called while holding the instance lock.
+     */
+    private void reportIfIntervalElapsed() {
+        long nowMs = SystemClock.elapsedRealtime();
+        long elapsedMs = nowMs - mIntervalStartMs;
+        if (elapsedMs < REPORT_INTERVAL_MS) {
+            return;
+        }
+
+        float seconds = elapsedMs / 1000.0f;
+        float avgDrawMs = (mDraws == 0) ? 0.0f : (mTotalDrawNs / (float) mDraws) / 1000000.0f;
+        float avgLatencyMs = (mLatencySamples == 0) ?
+                0.0f : (mTotalLatencyNs / (float) mLatencySamples) / 1000000.0f;
+        Log.d(TAG, String.format(
+                "[%s] invalidations/s requested=%.1f posted=%.1f skipped=%.1f, "
+                        + "mutations/s applied=%.1f redundant=%.1f, draws/s=%.1f, "
+                        + "draw avg=%.3fms max=%.3fms, latency avg=%.3fms max=%.3fms",
+                mRenderThread ? "render thread" : "ui thread",
+                mRequestedInvalidations / seconds, mPostedInvalidations / seconds,
+                mSkippedInvalidations / seconds, mMutations / seconds,
+                mRedundantMutations / seconds, mDraws / seconds,
+                avgDrawMs, mMaxDrawNs / 1000000.0f,
+                avgLatencyMs, mMaxLatencyNs / 1000000.0f));
+
+        mIntervalStartMs = nowMs;
+        mRequestedInvalidations = 0;
+        mPostedInvalidations = 0;
+        mSkippedInvalidations = 0;
+        mMutations = 0;
+        mRedundantMutations = 0;
+        mDraws = 0;
+        mTotalDrawNs = 0;
+        mMaxDrawNs = 0;
+        mLatencySamples = 0;
+        mTotalLatencyNs = 0;
+        mMaxLatencyNs = 0;
+    }
+}
@@ -0,0 +1,148 @@
+/*
+ * Copyright (C) The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.android.gms.samples.vision.face.googlyeyes.ui.camera;
+
+import android.annotation.TargetApi;
+import android.content.Context;
+import android.graphics.PixelFormat;
+import android.os.Build;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Process;
+import android.view.Choreographer;
+import android.view.SurfaceHolder;
+import android.view.SurfaceView;
+
+/**
+ * Renders the graphics of a {@link GraphicOverlay} into a transparent {@link SurfaceView} from a
+ * dedicated rendering thread, instead of drawing them in {@link GraphicOverlay#onDraw} on the UI
+ * thread.<p>
+ *
+ * Frames are driven by the rendering thread's own {@link Choreographer}: a change to the overlay
+ * posts a single frame callback, and the frame renders the accumulated dirty region at the next
+ * vsync.  The surface is ordered above the camera preview surface but below the window, so that
+ * regular views (e.g., buttons) still draw on top of the graphics.
+ */
+@TargetApi(Build.VERSION_CODES.JELLY_BEAN)
+class OverlayRenderer implements SurfaceHolder.Callback, Choreographer.FrameCallback {
+    private final GraphicOverlay mOverlay;
+    private final SurfaceView mSurfaceView;
+
+    // The holder is only valid between surfaceCreated and surfaceDestroyed.  Rendering holds the
+    // lock, so that the surface is never drawn after surfaceDestroyed has returned.
+    private final Object mSurfaceLock = new Object();
+    private SurfaceHolder mHolder;
+
+    private HandlerThread mThread;
+    private volatile Handler mHandler;
+
+    // Accessed on the rendering thread, and reset by start() before that thread is started.
+    private boolean mFrameScheduled;
+
+    private final Runnable mScheduleFrameRunnable = new Runnable() {
+        @Override
+        public void run() {
+            if (!mFrameScheduled) {
+                mFrameScheduled = true;
+                Choreographer.getInstance().postFrameCallback(OverlayRenderer.this);
+            }
+        }
+    };
+
+    OverlayRenderer(GraphicOverlay overlay, Context context) {
+        mOverlay = overlay;
+
+        mSurfaceView = new SurfaceView(context);
+        mSurfaceView.setZOrderMediaOverlay(true);
+        mSurfaceView.getHolder().setFormat(PixelFormat.TRANSPARENT);
+        mSurfaceView.getHolder().addCallback(this);
+    }
+
+    /**
+     * Returns the view which displays the rendered graphics.
+     */
+    SurfaceView getView() {
+        return mSurfaceView;
+    }
+
+    /**
+     * Starts the rendering thread.  Called on the UI thread.
+     */
+    void start() {
+        if (mThread != null) {
+            return;
+        }
+        // A frame callback pending when the previous thread quit never ran.
+        mFrameScheduled = false;
+        mThread = new HandlerThread("GraphicOverlayRenderer", Process.THREAD_PRIORITY_DISPLAY);
+        mThread.start();
+        mHandler = new Handler(mThread.getLooper());
+        requestFrame();
+    }
+
+    /**
+     * Stops the rendering thread.  Pending frames are dropped.  Called on the UI thread.
+     */
+    void stop() {
+        if (mThread == null) {
+            return;
+        }
+        mHandler = null;
+        mThread.quit();
+        mThread = null;
+    }
+
+    /**
+     * Requests that the next vsync renders the overlay's pending dirty region.  Any number of
+     * requests before that frame result in a single render.  May be called from any thread.
+     */
+    void requestFrame() {
+        Handler handler = mHandler;
+        if (handler != null) {
+            handler.post(mScheduleFrameRunnable);
+        }
+    }
+
+    @Override
+    public void doFrame(long frameTimeNanos) {
+        mFrameScheduled = false;
+        synchronized (mSurfaceLock) {
+            if (mHolder != null) {
+                mOverlay.renderFrame(mHolder);
+            }
+        }
+    }
+
+    @Override
+    public void surfaceCreated(SurfaceHolder holder) {
+        synchronized (mSurfaceLock) {
+            mHolder = holder;
+        }
+    }
+
+    @Override
+    public void surfaceChanged(SurfaceHolder holder, int format, int width, int height) {
+        // A new or resized surface has undefined contents, so it has to be redrawn completely.
+        mOverlay.invalidateAll();
+    }
+
+    @Override
+    public void surfaceDestroyed(SurfaceHolder holder) {
+        synchronized (mSurfaceLock) {
+            mHolder = null;
+        }
+    }
+}
@@ -0,0 +1,190 @@
+/*
+ * Copyright (C) The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.android.gms.samples.vision.face.googlyeyes.ui.camera;
+
+import android.graphics.Canvas;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.*;
+
+/**
+ * Stress test of the copy-on-write graphic snapshot of {@link GraphicOverlay}: several tracker
+ * threads add, remove and invalidate graphics while another thread keeps drawing.  Runs on the
+ * host against the default-value android.jar, so nothing is actually rendered.
+ */
+public class GraphicOverlayTest {
+    private static final int MUTATOR_THREADS = 4;
+    private static final int GRAPHICS_PER_THREAD = 8;
+    private static final int ITERATIONS = 20000;
+
+    /**
+     * Records the graphics drawn by the current draw pass.
+     */
+    private static class TestGraphic extends GraphicOverlay.Graphic {
+        private final List<TestGraphic> mDrawn;
+
+        TestGraphic(GraphicOverlay overlay, List<TestGraphic> drawn) {
+            super(overlay);
+            mDrawn = drawn;
+        }
+
+        @Override
+        public void draw(Canvas canvas) {
+            mDrawn.add(this);
+        }
+    }
+
+    @Test
+    public void concurrentAddRemoveAndDraw() throws Exception {
+        final GraphicOverlay overlay = new GraphicOverlay(null, null);
+        // only used by the draw thread
+        final List<TestGraphic> drawn = new ArrayList<>();
+        final List<List<TestGraphic>> graphics = new ArrayList<>();
+        final List<Set<TestGraphic>> present = new ArrayList<>();
+        final long[] mutations = new long[MUTATOR_THREADS];
+        final long[] redundantMutations = new long[MUTATOR_THREADS];
+        for (int t = 0; t < MUTATOR_THREADS; ++t) {
+            List<TestGraphic> own = new ArrayList<>();
+            for (int i = 0; i < GRAPHICS_PER_THREAD; ++i) {
+                own.add(new TestGraphic(overlay, drawn));
+            }
+            graphics.add(own);
+            present.add(Collections.newSetFromMap(new IdentityHashMap<TestGraphic, Boolean>()));
+        }
+
+        final AtomicReference<Throwable> failure = new AtomicReference<>();
+        final AtomicBoolean mutating = new AtomicBoolean(true);
+        final CountDownLatch start = new CountDownLatch(1);
+        final CountDownLatch mutatorsDone = new CountDownLatch(MUTATOR_THREADS);
+
+        // Each mutator owns a disjoint set of graphics, so it knows which of them are present and
+        // how many of its calls change the overlay.
+        List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < MUTATOR_THREADS; ++t) {
+            final int index = t;
+            threads.add(new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        Random random = new Random(index);
+                        List<TestGraphic> own = graphics.get(index);
+                        Set<TestGraphic> ownPresent = present.get(index);
+                        start.await();
+                        for (int i = 0; i < ITERATIONS; ++i) {
+                            TestGraphic graphic = own.get(random.nextInt(own.size()));
+                            switch (random.nextInt(3)) {
+                                case 0:
+                                    overlay.add(graphic);
+                                    if (ownPresent.add(graphic)) {
+                                        mutations[index]++;
+                                    } else {
+                                        redundantMutations[index]++;
+                                    }
+                                    break;
+                                case 1:
+                                    overlay.remove(graphic);
+                                    if (ownPresent.remove(graphic)) {
+                                        mutations[index]++;
+                                    } else {
+                                        redundantMutations[index]++;
+                                    }
+                                    break;
+                                default:
+                                    graphic.postInvalidate();
+                                    break;
+                            }
+                        }
+                    } catch (Throwable e) {
+                        failure.compareAndSet(null, e);
+                    } finally {
+                        mutatorsDone.countDown();
+                    }
+                }
+            }, "Mutator-" + t));
+        }
+
+        // Every draw pass must see a consistent snapshot: no graphic twice and no holes.
+        threads.add(new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    Canvas canvas = new Canvas();
+                    Set<TestGraphic> seen =
+                            Collections.newSetFromMap(new IdentityHashMap<TestGraphic, Boolean>());
+                    start.await();
+                    while (mutating.get()) {
+                        drawn.clear();
+                        seen.clear();
+                        overlay.onDraw(canvas);
+                        assertTrue(drawn.size() <= MUTATOR_THREADS * GRAPHICS_PER_THREAD);
+                        for (TestGraphic graphic : drawn) {
+                            assertNotNull(graphic);
+                            assertTrue(seen.add(graphic));
+                        }
+                    }
+                } catch (Throwable e) {
+                    failure.compareAndSet(null, e);
+                }
+            }
+        }, "Draw"));
+
+        for (Thread thread : threads) {
+            thread.start();
+        }
+        start.countDown();
+        mutatorsDone.await();
+        mutating.set(false);
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        if (failure.get() != null) {
+            throw new AssertionError(failure.get());
+        }
+
+        // After the threads are done, a draw sees exactly the graphics which are present.
+        Set<TestGraphic> expected =
+                Collections.newSetFromMap(new IdentityHashMap<TestGraphic, Boolean>());
+        long expectedMutations = 0;
+        long expectedRedundantMutations = 0;
+        for (int t = 0; t < MUTATOR_THREADS; ++t) {
+            expected.addAll(present.get(t));
+            expectedMutations += mutations[t];
+            expectedRedundantMutations += redundantMutations[t];
+        }
+        drawn.clear();
+        overlay.onDraw(new Canvas());
+        assertEquals(expected.size(), drawn.size());
+        assertTrue(expected.containsAll(drawn));
+        assertEquals(expectedMutations, overlay.getMutationCount());
+        assertEquals(expectedRedundantMutations, overlay.getRedundantMutationCount());
+
+        overlay.clear();
+        drawn.clear();
+        overlay.onDraw(new Canvas());
+        assertTrue(drawn.isEmpty());
+    }
+}